@@ -0,0 +1,52 @@
+package tj.epic.cashcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Journaling a stacked bill, done on the polling thread before the ACK.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JournalBenchmark {
+	private Path file;
+	private BanknoteJournal journal;
+	private int billType = 0;
+
+	@Setup
+	public void setup() throws IOException {
+		file = Files.createTempFile("cashcode", ".journal");
+		Files.delete(file);
+		journal = new BanknoteJournal(file, 1 << 20);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		journal.close();
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public long append() throws IOException {
+		billType = (billType + 1) & 7;
+		return journal.append(0x03, "000000000001", billType, 1000);
+	}
+}
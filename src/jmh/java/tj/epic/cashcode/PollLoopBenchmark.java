@@ -0,0 +1,69 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One poll loop iteration, POLL and the ACK of its reply, against a simulator that replies from the writing thread,
+ * so that only the driver is measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PollLoopBenchmark {
+	private final CashCodeEvents eventListener = new CashCodeEvents() {
+		public void onAccept() {}
+		public void onReject() {}
+		public void onEscrowPosition() {}
+		public void onStack() {}
+		public void onBillStack(int value) {}
+		public void onReturn() {}
+		public void onBillReturned() {}
+		public void onDropCassetteOutOfPosition() {}
+		public void onCassetteInitialize() {}
+	};
+
+	private CashCodeSM cashCode;
+
+	@Setup
+	public void setup() throws Exception {
+		InMemoryTransport transport = new InMemoryTransport();
+		BillValidatorSimulator simulator = new BillValidatorSimulator();
+		simulator.setResponseDelayMs(0);
+		simulator.setInitializeMs(0);
+		simulator.connect(transport);
+
+		cashCode = new CashCodeSM();
+		cashCode.setLogger(NOPLogger.NOP_LOGGER);
+		cashCode.setTransport(transport);
+		cashCode.init("memory", SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		cashCode.powerUp();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		cashCode.disconnect();
+	}
+
+	@Benchmark
+	public Object idlePoll() {
+		return cashCode.pollCycle(eventListener).join();
+	}
+}
@@ -0,0 +1,80 @@
+package tj.epic.cashcode;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frame encoding, CRC16, decoding and reply status dispatch, the work done on every exchange.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolBenchmark {
+	private final PacketEncoder encoder = new PacketEncoder(0x03);
+	private final int[] enableData = {255, 255, 255, 0, 0, 0};
+	private final byte[] billTableFrame = new byte[125];
+
+	private final Frame[] replies = {
+			new Frame(0x03, new int[]{0x14}),
+			new Frame(0x03, new int[]{0x81, 0x02}),
+			new Frame(0x03, new int[]{0x43}),
+			new Frame(0x03, new int[]{0x47, 0x50}),
+	};
+	private int reply = 0;
+
+	private int[] stackedReply;
+	private FrameDecoder decoder;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		for (int i = 0; i < billTableFrame.length; i++) {
+			billTableFrame[i] = (byte) i;
+		}
+
+		stackedReply = new int[]{0x02, 0x03, 0x07, 0x81, 0x02, 0, 0};
+		int crc = Crc16.compute(stackedReply, 0, 5);
+		stackedReply[5] = crc & 0xFF;
+		stackedReply[6] = crc >> 8 & 0xFF;
+		decoder = new FrameDecoder(blackhole::consume);
+	}
+
+	@Benchmark
+	public byte[] encodePoll() {
+		return encoder.encode(BillValidatorCommand.POLL);
+	}
+
+	@Benchmark
+	public byte[] encodeEnableBillTypes() {
+		return encoder.encode(BillValidatorCommand.ENABLE_BILL_TYPES, enableData);
+	}
+
+	@Benchmark
+	public int crc16() {
+		return Crc16.compute(billTableFrame, 0, billTableFrame.length - 2);
+	}
+
+	@Benchmark
+	public void decodeReply() {
+		decoder.feed(stackedReply);
+	}
+
+	@Benchmark
+	public Object deviceError() {
+		reply = (reply + 1) & 3;
+		return PollStatus.errorOf(replies[reply]);
+	}
+}
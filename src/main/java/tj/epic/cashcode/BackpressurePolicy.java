@@ -0,0 +1,12 @@
+package tj.epic.cashcode;
+
+/**
+ * What {@link BillValidatorEventPublisher} does with an event for a subscriber whose buffer is full.
+ */
+public enum BackpressurePolicy {
+	// the event is dropped for that subscriber and counted; BILL_STACKED, which carries money, first waits for room up
+	// to a timeout, holding up the poll loop
+	DROP,
+	// the poll loop waits until the subscriber has room, delaying the ACK as a slow listener does
+	BLOCK,
+}
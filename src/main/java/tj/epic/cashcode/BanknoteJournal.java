@@ -0,0 +1,273 @@
+package tj.epic.cashcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of stacked bills in a memory-mapped file, see {@link CashCodeSM#setJournal}. A bill is written
+ * before the device gets the ACK of its poll reply, so once the device moves on the bill is on record.
+ * <p>
+ * Records have a fixed size: sequence, timestamp, value, device address, bill type, device serial number and a CRC32C
+ * of the rest. Devices sharing a journal are told apart by their serial number, or by their address alone when a device
+ * did not identify itself. Appending
+ * is a copy into the mapping and takes microseconds. Written records survive a crash of the JVM, as the mapping is
+ * backed by the page cache; {@link #force()} writes them to the disk, which survives a power loss as well but takes
+ * milliseconds. Opening a journal reads its records back, up to the first one that is incomplete. Records persisted
+ * elsewhere are dropped with {@link #truncate(long)}, which keeps the file from growing without bound.
+ */
+public final class BanknoteJournal implements Closeable {
+	public static final int RECORD_SIZE = 44;
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	// "CCJ1"
+	private static final int MAGIC = 0x43434A31;
+	private static final int HEADER_SIZE = 16;
+	// sequence number of the last record dropped by truncate, the first record follows it
+	private static final int BASE_SEQUENCE_OFFSET = 8;
+	private static final int CHECKED_SIZE = RECORD_SIZE - Integer.BYTES;
+	private static final int SERIAL_NUMBER_OFFSET = 28;
+	private static final int SERIAL_NUMBER_LENGTH = 12;
+
+	private final Path file;
+	private final int initialCapacity;
+	private FileChannel channel;
+	private final byte[] record = new byte[RECORD_SIZE];
+	private final ByteBuffer recordBuffer = ByteBuffer.wrap(record);
+	private final CRC32C crc = new CRC32C();
+
+	private MappedByteBuffer mapping;
+	private int capacity;
+	private int count;
+	private long lastSequence;
+	private boolean closed = false;
+
+	public BanknoteJournal(Path file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Opens the journal, creating it if needed.
+	 *
+	 * @param capacity number of records the file is created with, it doubles when full
+	 */
+	public BanknoteJournal(Path file, int capacity) throws IOException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		this.file = file;
+		this.initialCapacity = capacity;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+		try {
+			long size = channel.size();
+			if (size == 0) {
+				map(capacity);
+				mapping.putInt(0, MAGIC);
+				mapping.putInt(4, RECORD_SIZE);
+			} else {
+				if (size < HEADER_SIZE) {
+					throw new IOException("Not a banknote journal: " + file);
+				}
+				map((int) Math.min((size - HEADER_SIZE) / RECORD_SIZE, Integer.MAX_VALUE));
+				if (mapping.getInt(0) != MAGIC || mapping.getInt(4) != RECORD_SIZE) {
+					throw new IOException("Not a banknote journal: " + file);
+				}
+				recover();
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Appends a stacked bill and returns its sequence number, one more than the previous record's.
+	 *
+	 * @param serialNumber serial number of the device, see {@link DeviceIdentification}, null if unknown; ASCII, up to 12
+	 *                     characters are kept
+	 */
+	public synchronized long append(int address, String serialNumber, int billType, long value) throws IOException {
+		if (closed) {
+			throw new IOException("Journal is closed: " + file);
+		}
+		if (count == capacity) {
+			map(capacity * 2);
+		}
+
+		long sequence = lastSequence + 1;
+		recordBuffer.putLong(0, sequence);
+		recordBuffer.putLong(8, System.currentTimeMillis());
+		recordBuffer.putLong(16, value);
+		recordBuffer.putShort(24, (short) address);
+		recordBuffer.putShort(26, (short) billType);
+		for (int i = 0; i < SERIAL_NUMBER_LENGTH; i++) {
+			record[SERIAL_NUMBER_OFFSET + i] = serialNumber != null && i < serialNumber.length() ? (byte) serialNumber.charAt(i) : (byte) ' ';
+		}
+		crc.reset();
+		crc.update(record, 0, CHECKED_SIZE);
+		recordBuffer.putInt(CHECKED_SIZE, (int) crc.getValue());
+
+		mapping.put(offset(count), record);
+		count++;
+		lastSequence = sequence;
+		return sequence;
+	}
+
+	/**
+	 * Sequence number of the last record, 0 if the journal is empty.
+	 */
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	public synchronized int size() {
+		return count;
+	}
+
+	public synchronized List<Entry> entries() {
+		return entriesAfter(0);
+	}
+
+	/**
+	 * Records with a sequence number above the given one, e.g. the last one a store has persisted, oldest first.
+	 */
+	public synchronized List<Entry> entriesAfter(long sequence) {
+		List<Entry> entries = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			int offset = offset(i);
+			if (mapping.getLong(offset) > sequence) {
+				entries.add(new Entry(
+						mapping.getLong(offset),
+						Instant.ofEpochMilli(mapping.getLong(offset + 8)),
+						mapping.getShort(offset + 24) & 0xFFFF,
+						serialNumber(offset),
+						mapping.getShort(offset + 26) & 0xFFFF,
+						mapping.getLong(offset + 16)));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Drops the records up to the given sequence number, e.g. the last one a store has persisted, and shrinks the file
+	 * to the records left, or to the initial capacity. Sequence numbers go on from where they were. The records left are
+	 * written to a new file that replaces the journal, so a crash leaves either the old journal or the new one.
+	 */
+	public synchronized void truncate(long sequence) throws IOException {
+		if (closed) {
+			throw new IOException("Journal is closed: " + file);
+		}
+
+		long baseSequence = mapping.getLong(BASE_SEQUENCE_OFFSET);
+		int dropped = (int) Math.max(0, Math.min(sequence, lastSequence) - baseSequence);
+		if (dropped == 0) {
+			return;
+		}
+
+		int left = count - dropped;
+		int newCapacity = Math.max(left, initialCapacity);
+		Path rolled = file.resolveSibling(file.getFileName() + ".tmp");
+		try (FileChannel target = FileChannel.open(rolled, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer rolledMapping = target.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * RECORD_SIZE);
+			rolledMapping.putInt(0, MAGIC);
+			rolledMapping.putInt(4, RECORD_SIZE);
+			rolledMapping.putLong(BASE_SEQUENCE_OFFSET, baseSequence + dropped);
+			for (int i = 0; i < left; i++) {
+				mapping.get(offset(dropped + i), record);
+				rolledMapping.put(offset(i), record);
+			}
+			rolledMapping.force();
+		}
+
+		channel.close();
+		boolean replaced = false;
+		try {
+			Files.move(rolled, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			replaced = true;
+		} finally {
+			// the old journal again if it could not be replaced
+			channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			map(replaced ? newCapacity : capacity);
+		}
+		count = left;
+	}
+
+	/**
+	 * Writes the records to the disk.
+	 */
+	public synchronized void force() {
+		if (!closed) {
+			mapping.force();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		mapping.force();
+		closed = true;
+		channel.close();
+	}
+
+	/**
+	 * Counts the complete records, a record torn by a crash ends the journal and is overwritten by the next append.
+	 */
+	private void recover() {
+		count = 0;
+		lastSequence = mapping.getLong(BASE_SEQUENCE_OFFSET);
+		while (count < capacity) {
+			int offset = offset(count);
+			mapping.get(offset, record);
+			crc.reset();
+			crc.update(record, 0, CHECKED_SIZE);
+			long sequence = recordBuffer.getLong(0);
+			if (recordBuffer.getInt(CHECKED_SIZE) != (int) crc.getValue() || sequence != lastSequence + 1) {
+				break;
+			}
+			lastSequence = sequence;
+			count++;
+		}
+	}
+
+	private void map(int capacity) throws IOException {
+		mapping = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * RECORD_SIZE);
+		this.capacity = capacity;
+	}
+
+	private String serialNumber(int offset) {
+		byte[] bytes = new byte[SERIAL_NUMBER_LENGTH];
+		mapping.get(offset + SERIAL_NUMBER_OFFSET, bytes);
+		return new String(bytes, StandardCharsets.US_ASCII).trim();
+	}
+
+	private static int offset(int index) {
+		return HEADER_SIZE + index * RECORD_SIZE;
+	}
+
+	/**
+	 * A stacked bill.
+	 *
+	 * @param serialNumber serial number of the device, empty if it did not identify itself
+	 * @param value        value of the bill in minor currency units, 0 if the denomination table did not know it
+	 */
+	public record Entry(long sequence, Instant timestamp, int address, String serialNumber, int billType, long value) {
+	}
+}
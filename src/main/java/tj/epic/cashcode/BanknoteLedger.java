@@ -0,0 +1,175 @@
+package tj.epic.cashcode;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Record of the bills stacked during one polling session.
+ * <p>
+ * Bill codes are kept in a primitive ring holding the most recent {@code capacity} bills. Count per bill type and the
+ * session total in minor currency units are kept for the whole session, and are read in O(1) without allocating.
+ * <p>
+ * Written by the polling thread only, read by any thread without locking. The ring has twice the capacity, so the
+ * writer only reuses a slot once its bill code has left the window readers see. Readers check the count again after
+ * reading a slot, so a slot the writer has overwritten in the meantime is never returned as part of the session.
+ */
+public final class BanknoteLedger {
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final AtomicIntegerArray ring;
+	private final int capacity;
+	private final int mask;
+	private final DenominationTable denominationTable;
+	private final AtomicLongArray countByCode = new AtomicLongArray(DenominationTable.BILL_TYPES);
+
+	private volatile long total = 0;
+	private volatile long count = 0;
+
+	public BanknoteLedger() {
+		this(DEFAULT_CAPACITY, DenominationTable.empty());
+	}
+
+	/**
+	 * @param capacity number of most recent bill codes kept, rounded up to a power of two
+	 */
+	public BanknoteLedger(int capacity, DenominationTable denominationTable) {
+		this.capacity = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		this.ring = new AtomicIntegerArray(this.capacity * 2);
+		this.mask = this.capacity * 2 - 1;
+		this.denominationTable = denominationTable;
+	}
+
+	/**
+	 * Single writer only.
+	 */
+	void append(int code) {
+		long current = count;
+		ring.set((int) (current & mask), code);
+		if (code >= 0 && code < DenominationTable.BILL_TYPES) {
+			countByCode.lazySet(code, countByCode.get(code) + 1);
+		}
+		total = total + denominationTable.getValue(code);
+		count = current + 1;
+	}
+
+	public DenominationTable getDenominationTable() {
+		return denominationTable;
+	}
+
+	/**
+	 * Number of bills stacked in the session.
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Number of bills of the given type stacked in the session.
+	 */
+	public long getCount(int code) {
+		return code >= 0 && code < DenominationTable.BILL_TYPES ? countByCode.get(code) : 0;
+	}
+
+	/**
+	 * Session total in minor currency units.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Number of bill codes still held by the ring, the most recent {@link #getCapacity()} at most.
+	 */
+	public int size() {
+		return (int) Math.min(count, capacity);
+	}
+
+	public boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Bill code at the given position of the ring, oldest first.
+	 */
+	public int get(int index) {
+		while (true) {
+			long end = count;
+			long start = Math.max(0, end - capacity);
+			if (index < 0 || index >= end - start) {
+				throw new IndexOutOfBoundsException("Index %s out of bounds for size %s".formatted(index, end - start));
+			}
+
+			long sequence = start + index;
+			int code = ring.get((int) (sequence & mask));
+			if (count - capacity <= sequence) {
+				return code;
+			}
+			// overwritten while reading, the window moved on
+		}
+	}
+
+	/**
+	 * Visits the bill codes held by the ring, oldest first, without copying them.
+	 */
+	public void forEach(BillVisitor visitor) {
+		long end = count;
+		for (long sequence = Math.max(0, end - capacity); sequence < end; sequence++) {
+			int code = ring.get((int) (sequence & mask));
+			if (count - capacity > sequence) {
+				// overwritten while reading, skipping to the oldest code still held
+				sequence = count - capacity - 1;
+				continue;
+			}
+			visitor.visit(code, denominationTable.getValue(code));
+		}
+	}
+
+	/**
+	 * Copies the bill codes held by the ring into the destination, oldest first. Returns the number of codes copied.
+	 */
+	public int copyTo(int[] destination) {
+		while (true) {
+			long end = count;
+			long start = Math.max(0, end - Math.min(capacity, destination.length));
+			int copied = (int) (end - start);
+			for (int i = 0; i < copied; i++) {
+				destination[i] = ring.get((int) ((start + i) & mask));
+			}
+			if (count - capacity <= start) {
+				return copied;
+			}
+		}
+	}
+
+	public int[] snapshot() {
+		while (true) {
+			long end = count;
+			long start = Math.max(0, end - capacity);
+			int[] codes = new int[(int) (end - start)];
+			for (int i = 0; i < codes.length; i++) {
+				codes[i] = ring.get((int) ((start + i) & mask));
+			}
+			if (count - capacity <= start) {
+				return codes;
+			}
+		}
+	}
+
+	public List<Integer> toList() {
+		return Arrays.stream(snapshot()).boxed().toList();
+	}
+
+	@FunctionalInterface
+	public interface BillVisitor {
+		/**
+		 * @param value value of the bill in minor currency units, 0 if the denomination table does not know the code
+		 */
+		void visit(int code, long value);
+	}
+}
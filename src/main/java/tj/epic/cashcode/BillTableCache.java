@@ -0,0 +1,111 @@
+package tj.epic.cashcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bill tables of validators, kept in a local file and keyed by serial number and part number, which names the
+ * firmware. With a cache, {@link CashCodeSM} reads the bill table of a validator once and reuses it on later power ups,
+ * see {@link CashCodeSM#setBillTableCache}. Several devices may share a cache.
+ */
+public final class BillTableCache {
+	// "CCBT"
+	private static final int MAGIC = 0x43434254;
+	private static final int VERSION = 1;
+
+	private final Path file;
+	private final Map<Key, DenominationTable> tables = new HashMap<>();
+
+	/**
+	 * Loads the cache file, if it exists.
+	 */
+	public BillTableCache(Path file) throws IOException {
+		this.file = file;
+		if (Files.exists(file)) {
+			load();
+		}
+	}
+
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Cached bill table of the validator, null if there is none.
+	 */
+	public synchronized DenominationTable get(DeviceIdentification identification) {
+		return tables.get(Key.of(identification));
+	}
+
+	/**
+	 * Caches the bill table of the validator and rewrites the file, replacing it atomically.
+	 */
+	public synchronized void put(DeviceIdentification identification, DenominationTable table) throws IOException {
+		tables.put(Key.of(identification), table);
+		save();
+	}
+
+	public synchronized int size() {
+		return tables.size();
+	}
+
+	private void load() throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a bill table cache: " + file);
+			}
+
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				Key key = new Key(in.readUTF(), in.readUTF());
+				long[] values = new long[DenominationTable.BILL_TYPES];
+				String[] currencies = new String[DenominationTable.BILL_TYPES];
+				for (int code = 0; code < DenominationTable.BILL_TYPES; code++) {
+					values[code] = in.readLong();
+					String currency = in.readUTF();
+					currencies[code] = currency.isEmpty() ? null : currency;
+				}
+				tables.put(key, new DenominationTable(values, currencies));
+			}
+		}
+	}
+
+	private void save() throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeInt(tables.size());
+				for (Map.Entry<Key, DenominationTable> entry : tables.entrySet()) {
+					out.writeUTF(entry.getKey().serialNumber);
+					out.writeUTF(entry.getKey().partNumber);
+					DenominationTable table = entry.getValue();
+					for (int code = 0; code < DenominationTable.BILL_TYPES; code++) {
+						out.writeLong(table.getValue(code));
+						String currency = table.getCurrency(code);
+						out.writeUTF(currency != null ? currency : "");
+					}
+				}
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	private record Key(String serialNumber, String partNumber) {
+		static Key of(DeviceIdentification identification) {
+			return new Key(identification.serialNumber(), identification.partNumber());
+		}
+	}
+}
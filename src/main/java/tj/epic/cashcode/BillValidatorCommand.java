@@ -1,25 +1,38 @@
 package tj.epic.cashcode;
 
 public enum BillValidatorCommand {
-	ACK(0x00),
-	RESET(0x30),
-	GET_STATUS(0x31),
-	SET_SECURITY(0x32),
-	POLL(0x33),
-	ENABLE_BILL_TYPES(0x34),
-	STACK(0x35),
-	RETURN(0x36),
-	IDENTIFICATION(0x37),
-	HOLD(0x38),
-	NAK(0xFF);
+	ACK(0x00, 0),
+	RESET(0x30, 100),
+	GET_STATUS(0x31, 100),
+	SET_SECURITY(0x32, 100),
+	POLL(0x33, 100),
+	ENABLE_BILL_TYPES(0x34, 100),
+	STACK(0x35, 100),
+	RETURN(0x36, 100),
+	IDENTIFICATION(0x37, 200),
+	HOLD(0x38, 100),
+	GET_BILL_TABLE(0x41, 300),
+	NAK(0xFF, 0);
 
 	public final int code;
 
-	BillValidatorCommand(int i) {
+	// how long to wait for the device reply, 0 if the device does not answer this command
+	public final int responseTimeoutMs;
+
+	BillValidatorCommand(int i, int responseTimeoutMs) {
 		this.code = i;
+		this.responseTimeoutMs = responseTimeoutMs;
 	}
 
 	public int getCode() {
 		return code;
 	}
+
+	public int getResponseTimeoutMs() {
+		return responseTimeoutMs;
+	}
+
+	public boolean hasResponse() {
+		return responseTimeoutMs > 0;
+	}
 }
@@ -0,0 +1,44 @@
+package tj.epic.cashcode;
+
+import java.time.Instant;
+
+/**
+ * Device event, as reported to {@link CashCodeEvents} and published by {@link BillValidatorEventPublisher}.
+ *
+ * @param sequence  number of the event, one more than the previous event of the device, see
+ *                  {@link CashCodeSM#getEventSequence()}
+ * @param timestamp when the poll reply carrying the event was handled
+ * @param billType  bill type of {@link Type#BILL_STACKED}, {@link #NO_BILL} for the other events
+ * @param error     device error of {@link Type#ERROR}, {@link BillValidatorError#NONE} once it cleared and for the other
+ *                  events
+ */
+public record BillValidatorEvent(long sequence, Instant timestamp, Type type, int billType, BillValidatorError error) {
+	public static final int NO_BILL = -1;
+
+	public BillValidatorEvent(long sequence, Instant timestamp, Type type, int billType) {
+		this(sequence, timestamp, type, billType, BillValidatorError.NONE);
+	}
+
+	public enum Type {
+		// CashCodeEvents.onAccept
+		ACCEPTING,
+		// CashCodeEvents.onReject
+		REJECTED,
+		// CashCodeEvents.onEscrowPosition
+		ESCROW_POSITION,
+		// CashCodeEvents.onStack
+		STACKING,
+		// CashCodeEvents.onBillStack
+		BILL_STACKED,
+		// CashCodeEvents.onReturn
+		RETURNING,
+		// CashCodeEvents.onBillReturned
+		BILL_RETURNED,
+		// CashCodeEvents.onDropCassetteOutOfPosition
+		CASSETTE_OUT_OF_POSITION,
+		// CashCodeEvents.onCassetteInitialize
+		CASSETTE_INITIALIZED,
+		// CashCodeEvents.onError
+		ERROR,
+	}
+}
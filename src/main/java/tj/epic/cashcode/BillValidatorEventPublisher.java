@@ -0,0 +1,110 @@
+package tj.epic.cashcode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes device events to {@link Flow.Subscriber}s, see {@link CashCodeSM#setEventPublisher}. Each subscriber has
+ * its own bounded buffer and runs on the executor, off the polling thread, so a slow subscriber does not delay the
+ * poll loop unless the policy is {@link BackpressurePolicy#BLOCK} or the event is a stacked bill, which waits for room
+ * up to the stacked bill timeout. The events carry the sequence numbers of the device, see {@link CashCodeSM#getEventSequence()}.
+ */
+public class BillValidatorEventPublisher implements Flow.Publisher<BillValidatorEvent>, AutoCloseable {
+	public static final long DEFAULT_STACKED_TIMEOUT_MS = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(BillValidatorEventPublisher.class);
+	private final SubmissionPublisher<BillValidatorEvent> publisher;
+	private final BackpressurePolicy policy;
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder droppedBills = new LongAdder();
+	private volatile long stackedTimeoutMs = DEFAULT_STACKED_TIMEOUT_MS;
+
+	/**
+	 * Delivers on the common pool with buffers of {@link Flow#defaultBufferSize()} events, dropping events for full
+	 * buffers.
+	 */
+	public BillValidatorEventPublisher() {
+		this(ForkJoinPool.commonPool(), Flow.defaultBufferSize(), BackpressurePolicy.DROP);
+	}
+
+	/**
+	 * @param bufferCapacity events buffered per subscriber, rounded up to a power of two
+	 */
+	public BillValidatorEventPublisher(Executor executor, int bufferCapacity, BackpressurePolicy policy) {
+		this.publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+		this.policy = policy;
+	}
+
+	/**
+	 * How long a stacked bill waits for room in the buffer of a slow subscriber under {@link BackpressurePolicy#DROP},
+	 * holding up the poll loop, before it is dropped for that subscriber.
+	 */
+	public void setStackedTimeoutMs(long stackedTimeoutMs) {
+		this.stackedTimeoutMs = stackedTimeoutMs;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super BillValidatorEvent> subscriber) {
+		publisher.subscribe(subscriber);
+	}
+
+	public void publish(BillValidatorEvent event) {
+		if (publisher.isClosed()) {
+			return;
+		}
+
+		try {
+			if (policy == BackpressurePolicy.BLOCK) {
+				publisher.submit(event);
+			} else if (event.type() == BillValidatorEvent.Type.BILL_STACKED) {
+				long timeoutMs = stackedTimeoutMs;
+				publisher.offer(event, timeoutMs, TimeUnit.MILLISECONDS, (subscriber, item) -> {
+					dropped.increment();
+					droppedBills.increment();
+					logger.error("Stacked bill dropped for a subscriber stalled for {} ms: {}", timeoutMs, item);
+					return false;
+				});
+			} else {
+				publisher.offer(event, (subscriber, item) -> {
+					dropped.increment();
+					return false;
+				});
+			}
+		} catch (IllegalStateException ignored) {
+			// closed meanwhile
+		}
+	}
+
+	/**
+	 * Events dropped for subscribers with a full buffer, stacked bills included.
+	 */
+	public long getDroppedCount() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Stacked bills dropped for subscribers that had no room for them within the stacked bill timeout.
+	 */
+	public long getDroppedBillCount() {
+		return droppedBills.sum();
+	}
+
+	public int getSubscriberCount() {
+		return publisher.getNumberOfSubscribers();
+	}
+
+	/**
+	 * Completes the subscribers once they have received the buffered events.
+	 */
+	@Override
+	public void close() {
+		publisher.close();
+	}
+}
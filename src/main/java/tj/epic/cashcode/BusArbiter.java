@@ -0,0 +1,238 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tj.epic.cashcode.exceptions.CashCodeException;
+import tj.epic.cashcode.exceptions.DisconnectException;
+import tj.epic.cashcode.exceptions.GeneralCashCodeException;
+import tj.epic.cashcode.exceptions.PortException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Several CCNET peripherals on one serial line (RS-485 multi-drop). Devices are attached by address and share the bus;
+ * {@link #startPolling()} polls them round-robin, one exchange at a time, and every reply is routed to the state
+ * machine of the device it came from.
+ * <p>
+ * Attached devices are powered up and stopped with their own {@code powerUp}/{@code stopPolling}. Their own polling
+ * loops cannot be started while the arbiter polls every attached device that is powered up and has bills enabled.
+ */
+public class BusArbiter implements AutoCloseable {
+	private final CcnetBus bus = new CcnetBus();
+	private final List<Attached> devices = new CopyOnWriteArrayList<>();
+	private ScheduledExecutorService scheduler;
+	private Logger logger = LoggerFactory.getLogger(BusArbiter.class);
+
+	public BusArbiter(Transport transport) {
+		bus.setTransport(transport);
+	}
+
+	public BusArbiter(SerialPort serialPort) {
+		this(new SerialPortTransport(serialPort));
+	}
+
+	public BusArbiter(String portName) {
+		this(new SerialPort(portName));
+	}
+
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Metrics of the shared line: frames, CRC errors, timeouts and round trips of all attached devices.
+	 */
+	public void setMetrics(CashCodeMetrics metrics) {
+		bus.setMetrics(metrics);
+	}
+
+	public void setFrameTracer(FrameTracer frameTracer) {
+		bus.setFrameTracer(frameTracer);
+	}
+
+	/**
+	 * Retries of every exchange on the shared line, see {@link CcnetBus#setMaxRetries}.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		bus.setMaxRetries(maxRetries);
+	}
+
+	public void setLogger(Logger logger) {
+		this.logger = logger;
+		bus.setLogger(logger);
+	}
+
+	public void setReceiveMode(ReceiveMode receiveMode) throws CashCodeException {
+		try {
+			bus.setReceiveMode(receiveMode);
+		} catch (SerialPortException e) {
+			logger.error(e.getMessage());
+			throw new PortException("Port error: " + e.getMessage());
+		}
+	}
+
+	public void open(int baudRate, int dataBits, int stopBits, int parity) throws CashCodeException {
+		try {
+			bus.open(baudRate, dataBits, stopBits, parity);
+		} catch (SerialPortException e) {
+			logger.error(e.getMessage());
+			throw new PortException("Port error: " + e.getMessage());
+		}
+
+		for (Attached attached : devices) {
+			attached.device.setConnected(true);
+		}
+	}
+
+	/**
+	 * Attaches the device at the given address. Its events are delivered to the listener while the arbiter polls.
+	 */
+	public CashCodeSM attach(int address, CashCodeEvents eventListener) {
+		for (Attached attached : devices) {
+			if (attached.device.getAddress() == address) {
+				throw new IllegalArgumentException("Address already attached: " + address);
+			}
+		}
+
+		CashCodeSM device = new CashCodeSM(address, bus);
+		device.setConnected(bus.isOpened());
+		if (scheduler != null) {
+			device.setScheduler(scheduler);
+		}
+		devices.add(new Attached(device, eventListener));
+		return device;
+	}
+
+	public void detach(CashCodeSM device) {
+		devices.removeIf(attached -> attached.device == device);
+	}
+
+	public List<CashCodeSM> getDevices() {
+		return devices.stream().map(attached -> attached.device).toList();
+	}
+
+	/**
+	 * Polls the attached devices round-robin until the handle is cancelled or the port fails. The handle completes
+	 * exceptionally if one of the devices is already polling.
+	 */
+	public PollingHandle startPolling() {
+		logger.debug("Starting bus polling");
+		RoundRobinPolling polling = new RoundRobinPolling();
+		List<Attached> attachedDevices = List.copyOf(devices);
+		for (int i = 0; i < attachedDevices.size(); i++) {
+			try {
+				attachedDevices.get(i).device.startBusSession();
+			} catch (CashCodeException e) {
+				for (Attached started : attachedDevices.subList(0, i)) {
+					started.device.endBusSession();
+				}
+				polling.completion.completeExceptionally(e);
+				return polling;
+			}
+		}
+
+		polling.completion.whenComplete((ignored, throwable) -> attachedDevices.forEach(attached -> attached.device.endBusSession()));
+		getScheduler().execute(() -> polling.cycle(List.copyOf(devices), 0));
+		return polling;
+	}
+
+	@Override
+	public void close() throws CashCodeException {
+		for (Attached attached : devices) {
+			attached.device.setConnected(false);
+		}
+
+		if (!bus.isOpened()) {
+			return;
+		}
+
+		try {
+			bus.close();
+		} catch (SerialPortException e) {
+			logger.error(e.getMessage());
+			throw new DisconnectException("Disconnect error: " + e.getMessage());
+		}
+	}
+
+	private long roundIntervalMs() {
+		long intervalMs = CashCodeSM.POLL_INTERVAL_MS;
+		boolean polled = false;
+		for (Attached attached : devices) {
+			if (attached.device.isPollingEnabled()) {
+				intervalMs = polled ? Math.min(intervalMs, attached.device.getPollIntervalMs()) : attached.device.getPollIntervalMs();
+				polled = true;
+			}
+		}
+		return intervalMs;
+	}
+
+	private ScheduledExecutorService getScheduler() {
+		return scheduler != null ? scheduler : CashCodeSM.DefaultScheduler.INSTANCE;
+	}
+
+	private record Attached(CashCodeSM device, CashCodeEvents eventListener) {
+	}
+
+	private final class RoundRobinPolling implements PollingHandle {
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+		private volatile boolean cancelled = false;
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		@Override
+		public boolean isActive() {
+			return !completion.isDone();
+		}
+
+		@Override
+		public CompletionStage<Void> completion() {
+			return completion;
+		}
+
+		/**
+		 * Polls the devices of the round from the given one on. A round works on a snapshot of the attached devices, so
+		 * a device detached meanwhile is still polled until the round ends.
+		 */
+		private void cycle(List<Attached> round, int index) {
+			if (cancelled) {
+				logger.debug("Bus polling finished");
+				completion.complete(null);
+				return;
+			}
+
+			// skipping devices that are not accepting bills, a full round ends with the shortest poll interval of the
+			// devices, so a device processing a bill is polled quickly
+			while (index < round.size() && !round.get(index).device.isPollingEnabled()) {
+				index++;
+			}
+			if (index >= round.size()) {
+				getScheduler().schedule(() -> cycle(List.copyOf(devices), 0), roundIntervalMs(), TimeUnit.MILLISECONDS);
+				return;
+			}
+
+			Attached attached = round.get(index);
+			int next = index + 1;
+			attached.device.pollCycle(attached.eventListener).whenComplete((ignored, throwable) -> {
+				if (throwable == null) {
+					cycle(round, next);
+				} else if (CashCodeSM.unwrap(throwable) instanceof SerialPortException e) {
+					logger.error(e.getMessage());
+					completion.completeExceptionally(new GeneralCashCodeException("CashCode error: " + e.getMessage()));
+				} else {
+					logger.error("Bus polling failed", CashCodeSM.unwrap(throwable));
+					completion.completeExceptionally(CashCodeSM.unwrap(throwable));
+				}
+			});
+		}
+	}
+}
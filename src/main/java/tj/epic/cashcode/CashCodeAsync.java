@@ -0,0 +1,14 @@
+package tj.epic.cashcode;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking counterpart of {@link CashCode}. Stages complete exceptionally with a
+ * {@link tj.epic.cashcode.exceptions.CashCodeException} where the blocking methods would throw it.
+ */
+public interface CashCodeAsync {
+	CompletionStage<Void> powerUpAsync();
+	CompletionStage<Void> powerDownAsync();
+	PollingHandle startPollingAsync(CashCodeEvents eventHandler);
+	CompletionStage<Void> stopPollingAsync();
+}
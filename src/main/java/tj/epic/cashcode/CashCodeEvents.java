@@ -10,4 +10,11 @@ public interface CashCodeEvents {
 	void onBillReturned();
 	void onDropCassetteOutOfPosition();
 	void onCassetteInitialize();
+
+	/**
+	 * The device reported an error while polling, e.g. a jam, or {@link BillValidatorError#NONE} once it cleared.
+	 * Called once per change.
+	 */
+	default void onError(BillValidatorError error) {
+	}
 }
@@ -0,0 +1,198 @@
+package tj.epic.cashcode;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import tj.epic.cashcode.exceptions.CashCodeException;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Drives many validators from one process. Every registered device is switched to
+ * {@link ReceiveMode#EVENT_DRIVEN} and polled with the async API on one shared, bounded scheduler, so the thread count
+ * does not grow with the number of devices.
+ */
+public class CashCodeManager implements AutoCloseable {
+	private static final int DEFAULT_THREADS = 2;
+
+	private final ScheduledExecutorService scheduler;
+	private final boolean ownsScheduler;
+	private final Map<String, ManagedDevice> devices = new ConcurrentHashMap<>();
+	private final Logger logger = LoggerFactory.getLogger(CashCodeManager.class);
+
+	public CashCodeManager() {
+		this(DEFAULT_THREADS);
+	}
+
+	public CashCodeManager(int threads) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		this.scheduler = Executors.newScheduledThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "cashcode-manager-" + threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.ownsScheduler = true;
+	}
+
+	public CashCodeManager(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+		this.ownsScheduler = false;
+	}
+
+	/**
+	 * Registers a device. The device port is expected to be set up with {@code init} by the caller.
+	 */
+	public void register(String deviceId, CashCodeSM device) throws CashCodeException {
+		device.setScheduler(scheduler);
+		device.setReceiveMode(ReceiveMode.EVENT_DRIVEN);
+		if (devices.putIfAbsent(deviceId, new ManagedDevice(device)) != null) {
+			throw new IllegalArgumentException("Device already registered: " + deviceId);
+		}
+		logger.debug("Registered device {}", deviceId);
+	}
+
+	/**
+	 * Cancels polling of the device and forgets it. The device port is left open.
+	 */
+	public void unregister(String deviceId) {
+		ManagedDevice managed = devices.remove(deviceId);
+		if (managed != null && managed.polling != null) {
+			managed.polling.cancel();
+		}
+	}
+
+	public Set<String> getDeviceIds() {
+		return Set.copyOf(devices.keySet());
+	}
+
+	public CashCodeSM getDevice(String deviceId) {
+		return get(deviceId).device;
+	}
+
+	public DeviceState getState(String deviceId) {
+		return get(deviceId).state;
+	}
+
+	/**
+	 * The error the device failed with, null unless it is in {@link DeviceState#FAILED}.
+	 */
+	public Throwable getFailure(String deviceId) {
+		return get(deviceId).failure;
+	}
+
+	public void addListener(String deviceId, CashCodeEvents listener) {
+		get(deviceId).events.add(listener);
+	}
+
+	public void removeListener(String deviceId, CashCodeEvents listener) {
+		get(deviceId).events.remove(listener);
+	}
+
+	/**
+	 * Powers the device up and starts polling it. The stage completes once polling has started.
+	 */
+	public CompletionStage<Void> start(String deviceId) {
+		ManagedDevice managed = get(deviceId);
+		managed.failure = null;
+		managed.state = DeviceState.POWERING_UP;
+
+		return managed.device.powerUpAsync()
+				.thenRun(() -> {
+					managed.state = DeviceState.POLLING;
+					managed.polling = managed.device.startPollingAsync(managed.events);
+					managed.polling.completion().whenComplete((ignored, throwable) -> {
+						if (throwable != null) {
+							fail(deviceId, managed, throwable);
+						} else if (managed.state != DeviceState.FAILED) {
+							managed.state = DeviceState.STOPPED;
+						}
+					});
+				})
+				.whenComplete((ignored, throwable) -> {
+					if (throwable != null) {
+						fail(deviceId, managed, throwable);
+					}
+				});
+	}
+
+	/**
+	 * Disables bill acceptance and stops polling the device.
+	 */
+	public CompletionStage<Void> stop(String deviceId) {
+		ManagedDevice managed = get(deviceId);
+		managed.state = DeviceState.STOPPING;
+
+		return managed.device.stopPollingAsync().whenComplete((ignored, throwable) -> {
+			if (throwable != null) {
+				fail(deviceId, managed, throwable);
+			} else {
+				managed.state = DeviceState.STOPPED;
+			}
+		});
+	}
+
+	public CompletionStage<Void> startAll() {
+		return CompletableFuture.allOf(devices.keySet().stream()
+				.map(deviceId -> start(deviceId).toCompletableFuture())
+				.toArray(CompletableFuture[]::new));
+	}
+
+	public CompletionStage<Void> stopAll() {
+		return CompletableFuture.allOf(devices.keySet().stream()
+				.map(deviceId -> stop(deviceId).toCompletableFuture())
+				.toArray(CompletableFuture[]::new));
+	}
+
+	/**
+	 * Cancels polling of all devices and shuts the scheduler down if the manager created it.
+	 */
+	@Override
+	public void close() {
+		for (ManagedDevice managed : devices.values()) {
+			if (managed.polling != null) {
+				managed.polling.cancel();
+			}
+		}
+		devices.clear();
+
+		if (ownsScheduler) {
+			scheduler.shutdown();
+		}
+	}
+
+	private ManagedDevice get(String deviceId) {
+		ManagedDevice managed = devices.get(deviceId);
+		if (managed == null) {
+			throw new IllegalArgumentException("Unknown device: " + deviceId);
+		}
+		return managed;
+	}
+
+	private void fail(String deviceId, ManagedDevice managed, Throwable throwable) {
+		if (throwable instanceof CompletionException && throwable.getCause() != null) {
+			throwable = throwable.getCause();
+		}
+		logger.error("Device {} failed: {}", deviceId, throwable.getMessage());
+		managed.failure = throwable;
+		managed.state = DeviceState.FAILED;
+	}
+
+	private static final class ManagedDevice {
+		private final CashCodeSM device;
+		private final MulticastEvents events = new MulticastEvents();
+		private volatile DeviceState state = DeviceState.REGISTERED;
+		private volatile PollingHandle polling;
+		private volatile Throwable failure;
+
+		private ManagedDevice(CashCodeSM device) {
+			this.device = device;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package tj.epic.cashcode;
+
+/**
+ * Receives what a device and its bus do, for metrics. Every method is called from the thread doing the work, so
+ * implementations must be cheap and thread safe. {@link DefaultCashCodeMetrics} keeps counters and latency histograms
+ * and exports them over JMX; other registries such as Micrometer bind by implementing this interface.
+ */
+public interface CashCodeMetrics {
+	CashCodeMetrics NONE = new CashCodeMetrics() {
+	};
+
+	default void onFrameSent(BillValidatorCommand command) {
+	}
+
+	/**
+	 * Frame with a valid CRC, whichever address it came from.
+	 */
+	default void onFrameReceived(Frame frame) {
+	}
+
+	default void onCrcError() {
+	}
+
+	/**
+	 * The device answered a command with NAK.
+	 */
+	default void onNak() {
+	}
+
+	default void onTimeout(BillValidatorCommand command) {
+	}
+
+	/**
+	 * A command is sent again, or its reply asked for again, after a missing, NAK or corrupted reply.
+	 */
+	default void onRetransmit(BillValidatorCommand command) {
+	}
+
+	/**
+	 * The device did not answer a POLL despite the retransmissions and was reset.
+	 */
+	default void onDeviceReset() {
+	}
+
+	/**
+	 * Time from sending a command to receiving its reply.
+	 */
+	default void onRoundTrip(BillValidatorCommand command, long nanos) {
+	}
+
+	/**
+	 * Status of a POLL reply, idling included.
+	 */
+	default void onPollStatus(int status) {
+	}
+
+	/**
+	 * Time from a bill reaching escrow to it being reported stacked. Validators not holding bills in escrow are
+	 * measured from the start of accepting.
+	 */
+	default void onEscrowToStack(long nanos) {
+	}
+
+	/**
+	 * How late a poll cycle started against its schedule.
+	 */
+	default void onPollJitter(long nanos) {
+	}
+
+	/**
+	 * The connection was lost while polling.
+	 */
+	default void onDisconnect() {
+	}
+
+	/**
+	 * Supervised polling reopened the port and powered the device up again.
+	 */
+	default void onReconnect() {
+	}
+}
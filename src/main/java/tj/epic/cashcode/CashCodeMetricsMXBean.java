@@ -0,0 +1,37 @@
+package tj.epic.cashcode;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link DefaultCashCodeMetrics}.
+ */
+public interface CashCodeMetricsMXBean {
+	long getFramesSent();
+
+	long getFramesReceived();
+
+	long getCrcErrors();
+
+	long getNaks();
+
+	long getTimeouts();
+
+	long getRetransmits();
+
+	long getDeviceResets();
+
+	long getDisconnects();
+
+	long getReconnects();
+
+	/**
+	 * Number of POLL replies by status, keyed by the status in hex, e.g. "0x81".
+	 */
+	Map<String, Long> getPollStatusCounts();
+
+	LatencySnapshot getRoundTrip();
+
+	LatencySnapshot getEscrowToStack();
+
+	LatencySnapshot getPollJitter();
+}
@@ -6,46 +6,110 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import tj.epic.cashcode.exceptions.*;
 
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.io.IOException;
+import java.time.Instant;
 import java.util.List;
-import java.util.Optional;
-
-public class CashCodeSM implements CashCode {
-	private static final int DELAY_TIME_MS = 528;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+public class CashCodeSM implements CashCode, CashCodeAsync {
+	static final int POLL_INTERVAL_MS = 50;
+	static final int DEFAULT_ADDRESS = 0x03;
+	static final int[] NO_DATA = {};
+	public static final int ALL_BILL_TYPES = 0xFFFFFF;
+
+	// device state flags, kept in one word so that transitions are atomic
+	private static final int CONNECTED = 1;
+	private static final int POWERED_UP = 1 << 1;
+	private static final int BILL_ENABLED = 1 << 2;
+	private static final int POLLING = 1 << 3;
+	private static final int CASSETTE_REMOVED = 1 << 4;
 
 	// device states
-	private BillCassetteStatus cassetteStatus = BillCassetteStatus.ESTABLISHED;
-	private BillValidatorError billValidatorErrorState = BillValidatorError.NONE;
-
-	private boolean isConnected = false;
-	private boolean isPoweredUp = false;
-	private boolean isBillEnabled = false;
+	private final AtomicInteger state = new AtomicInteger();
+	private volatile BillValidatorError billValidatorErrorState = BillValidatorError.NONE;
 
-	// should store values only for one session
-	private final List<Integer> insertedMoney = new ArrayList<>();
+	// should store values only for one session, replaced when a session starts
+	private volatile BanknoteLedger ledger = new BanknoteLedger();
+	private volatile DenominationTable denominationTable = DenominationTable.empty();
+	private int ledgerCapacity = BanknoteLedger.DEFAULT_CAPACITY;
+	private int minorUnitDigits = 2;
 
-	private SerialPort serialPort;
+	private final CcnetLink link;
 	private Logger logger = LoggerFactory.getLogger(CashCodeSM.class);
+	private ScheduledExecutorService scheduler;
+	// port settings of init, used to reopen a lost connection
+	private volatile PortSettings portSettings;
+	private volatile CashCodeMetrics metrics = CashCodeMetrics.NONE;
+	private volatile PollInterval pollInterval = new PollInterval();
+	private volatile EscrowHandler escrowHandler;
+	private volatile BillValidatorEventPublisher eventPublisher;
+	private volatile BanknoteJournal journal;
+	private volatile BillTableCache billTableCache;
+	private volatile DeviceIdentification identification;
+
+	// bit n stands for bill type n
+	private volatile int enabledBillTypes = ALL_BILL_TYPES;
+	private volatile int escrowBillTypes = 0;
+
+	// single writer of the device, polls run in its background
+	private final CommandQueue commands;
+	private long escrowTimeoutMs = EscrowControl.DEFAULT_TIMEOUT_MS;
+	private volatile EscrowControl escrowControl;
+
+	// when the bill in progress started accepting and reached escrow, 0 if it did not
+	private long acceptingAt;
+	private long escrowAt;
+	// last poll reply: a reply repeating it, e.g. because its ACK was lost, is ACKed again but not delivered again
+	private Frame lastReply;
+	// sequence number of the last event delivered to listeners
+	private volatile long eventSequence = 0;
+	// the device did not power up when reset for not answering
+	private volatile boolean resetFailed = false;
+
+	public CashCodeSM() {
+		this(DEFAULT_ADDRESS);
+	}
+
+	/**
+	 * @param address CCNET peripheral address of the device, 0x03 for a bill validator
+	 */
+	public CashCodeSM(int address) {
+		this.link = new CcnetLink(address);
+		this.commands = new CommandQueue(link);
+	}
+
+	/**
+	 * Device sharing a bus with other peripherals, see {@link BusArbiter}.
+	 */
+	CashCodeSM(int address, CcnetBus bus) {
+		this.link = new CcnetLink(address, bus);
+		this.commands = new CommandQueue(link);
+	}
 
 	@Override
 	public void init(String portName, int baudRate, int dataBits, int stopBits, int parity) throws CashCodeException {
 		logger.info("Initializing");
-		if (serialPort == null) {
-			logger.debug("Serial port is not set, creating new one. Port name: %s".formatted(portName));
-			serialPort = new SerialPort(portName);
+		if (link.getTransport() == null) {
+			logger.debug("Transport is not set, creating serial port. Port name: {}", portName);
+			link.setSerialPort(new SerialPort(portName));
 		}
 
 		try {
-			logger.debug("Opening port");
-			serialPort.openPort();
-
-			logger.debug("Setting params. Baud rate: %s, data bits: %s stop bits: %s parity: %s".formatted(baudRate, dataBits, stopBits, parity));
-			serialPort.setParams(baudRate, dataBits, stopBits, parity);
+			logger.debug("Opening port. Baud rate: {}, data bits: {} stop bits: {} parity: {}, receive mode: {}", baudRate, dataBits, stopBits, parity, link.getReceiveMode());
+			link.open(baudRate, dataBits, stopBits, parity);
 		} catch (SerialPortException e) {
 			logger.error(e.getMessage());
 			throw new PortException("Port error: " + e.getMessage());
 		}
+		portSettings = new PortSettings(baudRate, dataBits, stopBits, parity);
 		setConnected(true);
 	}
 
@@ -56,7 +120,7 @@ public class CashCodeSM implements CashCode {
 			return;
 		}
 
-		if (!serialPort.isOpened()) {
+		if (!link.isOpened()) {
 			logger.warn("Port is already closed");
 			setConnected(false);
 			return;
@@ -64,7 +128,7 @@ public class CashCodeSM implements CashCode {
 
 		try {
 			logger.debug("Closing port");
-			serialPort.closePort();
+			link.close();
 			logger.debug("Port closed");
 		} catch (SerialPortException e) {
 			logger.error(e.getMessage());
@@ -76,112 +140,688 @@ public class CashCodeSM implements CashCode {
 
 	@Override
 	public void powerUp() throws CashCodeException {
+		try {
+			powerUpSequence().join();
+		} catch (CompletionException e) {
+			if (unwrap(e) instanceof CashCodeException cause) {
+				throw cause;
+			}
+			throw e;
+		}
+	}
+
+	@Override
+	public void powerDown() throws CashCodeException {
 		if (!isConnected()) {
-			logger.error("Port is not connected");
-			throw new PortNotConnectedException("Port is not connected. Init method should be called first");
+			logger.debug("Device is not connected");
+			return;
 		}
 
 		try {
-			sendPackage(BillValidatorCommand.POLL, new int[]{});
-			delay();
+			transceive(BillValidatorCommand.RESET, NO_DATA);
 
-			int[] pollResultPowerUp = readPackage();
+			transceive(BillValidatorCommand.POLL, new int[]{0, 0, 0, 0, 0, 0});
 
-			Optional<BillValidatorError> powerUpError = getDeviceError(pollResultPowerUp);
-			if (powerUpError.isPresent()) {
-				billValidatorErrorState = powerUpError.get();
-				sendPackage(BillValidatorCommand.NAK, new int[]{});
-				throw new PowerUpException("Power Up failed");
-			}
+			setPoweredUp(false);
+			logger.debug("Powered down successfully");
+		} catch (SerialPortException e) {
+			logger.error("Failed powering down a device", e);
+			throw new PowerDownException("Power down error: " + e.getMessage());
+		}
+	}
 
-			sendPackage(BillValidatorCommand.ACK, new int[]{});
-			delay();
+	@Override
+	public void startPolling(CashCodeEvents eventListener) throws CashCodeException {
+		logger.debug("Starting polling");
+		startSession(false);
 
-			sendPackage(BillValidatorCommand.RESET, new int[]{});
-			delay();
+		try {
+			pollLoop(eventListener);
+		} finally {
+			updateState(POLLING, false);
+		}
+	}
 
-			sendPackage(BillValidatorCommand.ENABLE_BILL_TYPES, new int[]{255, 255, 255, 0, 0, 0});
-			delay();
+	private void pollLoop(CashCodeEvents eventListener) throws CashCodeException {
+		while (isBillEnabled()) {
+			long intervalMs = pollInterval.getIntervalMs();
+			long scheduledAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs);
+			delay(intervalMs);
+			metrics.onPollJitter(System.nanoTime() - scheduledAt);
 
-			sendPackage(BillValidatorCommand.GET_STATUS, new int[]{});
-			delay();
+			try {
+				pollCycle(eventListener).join();
+			} catch (CompletionException e) {
+				if (unwrap(e) instanceof SerialPortException cause) {
+					connectionLost(cause);
+					throw new GeneralCashCodeException("CashCode error: " + cause.getMessage());
+				}
+				throw e;
+			}
+		}
+	}
 
-			// check, if not failed
-			int[] status = readPackage();
-			Optional<BillValidatorError> statusError = getDeviceError(status);
-			if (statusError.isPresent()) {
-				billValidatorErrorState = statusError.get();
-				sendPackage(BillValidatorCommand.NAK, new int[]{});
-				throw new PowerUpException("Power Up failed");
+	@Override
+	public void stopPolling() throws CashCodeException {
+		logger.debug("Stopping polling");
+		CompletableFuture<Void> stopped = stopPollingAsync().toCompletableFuture();
+		// called by an event listener during a poll: bills are disabled right after it, the poll loop ends then
+		if (commands.isRunningTask()) {
+			return;
+		}
+
+		try {
+			stopped.join();
+		} catch (CompletionException e) {
+			if (unwrap(e) instanceof CashCodeException cause) {
+				throw cause;
 			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Runs the power up sequence without holding a thread between steps. With {@link ReceiveMode#EVENT_DRIVEN} no
+	 * thread is held while waiting for a reply either.
+	 */
+	@Override
+	public CompletionStage<Void> powerUpAsync() {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		getScheduler().execute(() -> powerUpSequence().whenComplete((ignored, throwable) -> {
+			if (throwable == null) {
+				result.complete(null);
+			} else {
+				result.completeExceptionally(unwrap(throwable));
+			}
+		}));
+		return result;
+	}
+
+	@Override
+	public CompletionStage<Void> powerDownAsync() {
+		return runAsync(this::powerDown);
+	}
+
+	/**
+	 * Polls the device from the scheduler without holding a thread between cycles. With
+	 * {@link ReceiveMode#EVENT_DRIVEN} no thread is held while waiting for a reply either.
+	 */
+	@Override
+	public PollingHandle startPollingAsync(CashCodeEvents eventListener) {
+		logger.debug("Starting async polling");
+		return pollAsync(eventListener, false);
+	}
 
-			sendPackage(BillValidatorCommand.SET_SECURITY, new int[]{0x00, 0x00, 0x00});
-			delay();
+	/**
+	 * Polls like {@link #startPollingAsync}, and survives a lost connection, e.g. a USB adapter reset: the port is
+	 * reopened with the settings of {@link #init} and the backoff of the policy, the device is powered up again, which
+	 * skips RESET if the device kept its state, and polling resumes with the ledger of the session. The handle completes
+	 * exceptionally once the policy gives up.
+	 */
+	public PollingHandle startSupervisedPolling(CashCodeEvents eventListener, ReconnectPolicy reconnectPolicy) {
+		logger.debug("Starting supervised polling");
+		SupervisedPolling polling = new SupervisedPolling(eventListener, reconnectPolicy);
+		polling.poll(false);
+		return polling;
+	}
+
+	private AsyncPolling pollAsync(CashCodeEvents eventListener, boolean resume) {
+		AsyncPolling polling = new AsyncPolling(eventListener);
+
+		try {
+			startSession(resume);
+		} catch (CashCodeException e) {
+			polling.completion.completeExceptionally(e);
+			return polling;
+		}
+
+		polling.completion.whenComplete((ignored, throwable) -> updateState(POLLING, false));
+		getScheduler().execute(polling::cycle);
+		return polling;
+	}
+
+	/**
+	 * Disables bills with a control command, sent right after the poll in flight, if any.
+	 */
+	@Override
+	public CompletionStage<Void> stopPollingAsync() {
+		logger.debug("Stopping polling");
+		setBillEnabled(false);
 
-			int[] securityModeStatus = readPackage();
-			Optional<BillValidatorError> securityModeError = getDeviceError(securityModeStatus);
-			if (securityModeError.isPresent()) {
-				billValidatorErrorState = securityModeError.get();
-				sendPackage(BillValidatorCommand.NAK, new int[]{});
-				throw new SecurityModeException("Security Mode Error");
+		return commands.submit(BillValidatorCommand.ENABLE_BILL_TYPES, CommandQueue.Priority.CONTROL, () -> new int[]{0, 0, 0, 0, 0, 0})
+				.handle((stopStatus, throwable) -> {
+					if (throwable != null && !(unwrap(throwable) instanceof TimeoutException)) {
+						logger.error(unwrap(throwable).getMessage());
+						throw new CompletionException(new GeneralCashCodeException("CashCode error: " + unwrap(throwable).getMessage()));
+					}
+					if (stopStatus == null || stopStatus.getStatus() != 0x00) {
+						logger.error("CashCode error. Unknown error");
+						throw new CompletionException(new GeneralCashCodeException("CashCode error. Unknown error"));
+					}
+					logger.debug("Stopped polling");
+					return null;
+				});
+	}
+
+	@Override
+	public void setLogger(Logger logger) {
+		this.logger = logger;
+		link.setLogger(logger);
+	}
+
+	/**
+	 * Snapshot of the bill codes stacked in the current session.
+	 */
+	@Override
+	public List<Integer> getInsertedBanknotes() {
+		return this.ledger.toList();
+	}
+
+	/**
+	 * Ledger of the current session, safe to read from any thread.
+	 */
+	public BanknoteLedger getLedger() {
+		return this.ledger;
+	}
+
+	/**
+	 * Reads the bill table of the device and uses it to value the bills of the following sessions. The table is also
+	 * cached if there is a bill table cache and the device was identified.
+	 */
+	public DenominationTable loadBillTable() throws CashCodeException {
+		if (!isConnected()) {
+			throw new PortNotConnectedException("Port is not connected. Init method should be called first");
+		}
+
+		try {
+			DenominationTable table = commands.run(CommandQueue.Priority.CONTROL, this::requestBillTable).join();
+			setDenominationTable(table);
+			cacheBillTable(table);
+			return table;
+		} catch (CompletionException e) {
+			if (unwrap(e) instanceof CashCodeException cause) {
+				throw cause;
 			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Identification of the device, read at power up. Null before the first power up.
+	 */
+	public DeviceIdentification getIdentification() {
+		return identification;
+	}
+
+	/**
+	 * Keeps the bill tables of validators by serial number and firmware. At power up, the bill table of the device is
+	 * taken from the cache, or read from the device and cached, and values the bills of the following sessions in place
+	 * of a table set with {@link #setDenominationTable}. Without a cache the bill table is only read by
+	 * {@link #loadBillTable()}.
+	 */
+	public void setBillTableCache(BillTableCache billTableCache) {
+		this.billTableCache = billTableCache;
+	}
+
+	public BillTableCache getBillTableCache() {
+		return billTableCache;
+	}
+
+	/**
+	 * Values bills of the following sessions. The ledger of a session in progress keeps the table it started with.
+	 */
+	public void setDenominationTable(DenominationTable denominationTable) {
+		logger.debug("Setting denomination table = {}", denominationTable);
+		this.denominationTable = denominationTable;
+	}
+
+	public DenominationTable getDenominationTable() {
+		return denominationTable;
+	}
+
+	/**
+	 * Digits of the minor currency unit used when the bill table is read, 2 by default.
+	 */
+	public void setMinorUnitDigits(int minorUnitDigits) {
+		this.minorUnitDigits = minorUnitDigits;
+	}
+
+	/**
+	 * Number of most recent bill codes a session ledger keeps. Counts and totals cover the whole session regardless.
+	 */
+	public void setLedgerCapacity(int ledgerCapacity) {
+		this.ledgerCapacity = ledgerCapacity;
+	}
+
+	public BillCassetteStatus getCassetteStatus() {
+		return hasState(CASSETTE_REMOVED) ? BillCassetteStatus.REMOVED : BillCassetteStatus.ESTABLISHED;
+	}
+
+	@Override
+	public BillValidatorError getError() {
+		return this.billValidatorErrorState;
+	}
+
+	public int getAddress() {
+		return link.getAddress();
+	}
+
+	public void setSerialPort(SerialPort serialPort) {
+		logger.debug("Setting serial port to {}", serialPort);
+		link.setSerialPort(serialPort);
+	}
+
+	/**
+	 * Talks to the device over the given transport instead of a serial port, e.g. a TCP connection or a simulator.
+	 */
+	public void setTransport(Transport transport) {
+		logger.debug("Setting transport to {}", transport.getName());
+		link.setTransport(transport);
+	}
+
+	/**
+	 * Scheduler for the async API. A small shared daemon scheduler is used if none is set.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Metrics of the device, see {@link DefaultCashCodeMetrics}. Frame level metrics of a device on a shared bus are
+	 * set on its {@link BusArbiter}.
+	 */
+	public void setMetrics(CashCodeMetrics metrics) {
+		this.metrics = metrics;
+		link.setMetrics(metrics);
+	}
+
+	public CashCodeMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Records the raw frames exchanged with the device for {@link FrameTracer#dump()}. The wire trace of a device on
+	 * a shared bus is set on its {@link BusArbiter}.
+	 */
+	public void setFrameTracer(FrameTracer frameTracer) {
+		link.setFrameTracer(frameTracer);
+	}
+
+	/**
+	 * Times a command is sent again after a missing, NAK or corrupted reply, 2 by default. A POLL that still gets no
+	 * reply resets the device. Retries of a device on a shared bus are set on its {@link BusArbiter}.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		link.setMaxRetries(maxRetries);
+	}
+
+	/**
+	 * Holds every bill in escrow until the handler decides to stack or return it. Takes effect at the next power up,
+	 * which tells the device to use escrow, and the next polling session. A null handler stacks bills without escrow.
+	 */
+	public void setEscrowHandler(EscrowHandler escrowHandler) {
+		this.escrowHandler = escrowHandler;
+		this.escrowBillTypes = escrowHandler != null ? ALL_BILL_TYPES : 0;
+	}
+
+	/**
+	 * Writes every stacked bill to the journal before ACKing it, see {@link BanknoteJournal#entriesAfter(long)} to
+	 * recover bills a crash kept from being persisted elsewhere. Several devices may share a journal, each bill is
+	 * recorded with the address and serial number of its device. A bill that cannot be written is not ACKed, the device
+	 * keeps reporting it and it is delivered once written. Null stops journaling.
+	 */
+	public void setJournal(BanknoteJournal journal) {
+		this.journal = journal;
+	}
+
+	public BanknoteJournal getJournal() {
+		return journal;
+	}
+
+	/**
+	 * Publishes the events of every polling session, after the listener of the session has been called. Subscribers
+	 * run on the executor of the publisher, off the polling thread. Null stops publishing.
+	 */
+	public void setEventPublisher(BillValidatorEventPublisher eventPublisher) {
+		this.eventPublisher = eventPublisher;
+	}
+
+	public BillValidatorEventPublisher getEventPublisher() {
+		return eventPublisher;
+	}
+
+	/**
+	 * Sequence number of the last event delivered, counted from 1 for the life of the device object. Each event is
+	 * delivered once: a reply the device repeats, e.g. because its ACK was lost, is ACKed again and not delivered.
+	 */
+	public long getEventSequence() {
+		return eventSequence;
+	}
+
+	/**
+	 * Changes the bill types the device accepts and holds in escrow, bit n standing for bill type n, see
+	 * {@link DenominationTable#typesUpTo(long)}. While polling, the change goes out between two polls without
+	 * stopping the loop; the stage completes once the device has taken it. If bills are not enabled, the masks are
+	 * kept for the next power up.
+	 */
+	public CompletionStage<Void> setBillTypes(int enabledBillTypes, int escrowBillTypes) {
+		logger.debug("Setting bill types = {}, escrow = {}", enabledBillTypes, escrowBillTypes);
+		this.enabledBillTypes = enabledBillTypes & ALL_BILL_TYPES;
+		this.escrowBillTypes = escrowBillTypes & ALL_BILL_TYPES;
+		if (!isPoweredUp() || !isBillEnabled()) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		// the latest masks are sent, and none once bills were disabled by stopping polling
+		return commands.submit(BillValidatorCommand.ENABLE_BILL_TYPES, CommandQueue.Priority.CONTROL, () -> isBillEnabled() ? enableBillTypes() : null)
+				.thenAccept(reply -> {
+					if (reply != null && reply.getStatus() != 0x00) {
+						logger.error("Bill types refused: {}", reply);
+						throw new CompletionException(new GeneralCashCodeException("CashCode error. Bill types refused"));
+					}
+				});
+	}
+
+	public int getEnabledBillTypes() {
+		return enabledBillTypes;
+	}
+
+	public int getEscrowBillTypes() {
+		return escrowBillTypes;
+	}
+
+	/**
+	 * Time the escrow handler has to decide, 8 seconds by default; the device itself returns a bill held for 10 seconds.
+	 * Bills without a decision in time are returned.
+	 */
+	public void setEscrowTimeoutMs(long escrowTimeoutMs) {
+		this.escrowTimeoutMs = escrowTimeoutMs;
+	}
+
+	/**
+	 * Interval between polls, adaptive by default. Use {@link PollInterval#fixed(long)} for a constant rate. Every device
+	 * needs its own instance.
+	 */
+	public void setPollInterval(PollInterval pollInterval) {
+		logger.debug("Setting poll interval = {}..{} ms", pollInterval.getMinMs(), pollInterval.getMaxMs());
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Time to wait before the next poll, adapted to the last poll reply.
+	 */
+	long getPollIntervalMs() {
+		return pollInterval.getIntervalMs();
+	}
+
+	public void setReceiveMode(ReceiveMode receiveMode) throws CashCodeException {
+		logger.debug("Setting receive mode = {}", receiveMode);
+		try {
+			link.setReceiveMode(receiveMode);
+		} catch (SerialPortException e) {
+			logger.error(e.getMessage());
+			throw new PortException("Port error: " + e.getMessage());
+		}
+	}
+
+	void beginSession() {
+		ledger = new BanknoteLedger(ledgerCapacity, denominationTable);
+		lastReply = null;
+		resumeSession();
+	}
+
+	/**
+	 * Starts polling again within the current session, keeping its ledger.
+	 */
+	private void resumeSession() {
+		pollInterval.reset();
+
+		EscrowHandler handler = escrowHandler;
+		escrowControl = handler != null ? new EscrowControl(commands, handler, escrowTimeoutMs, logger) : null;
+	}
+
+	/**
+	 * Moves the device into polling. Only one polling loop may run at a time.
+	 */
+	private void startSession(boolean resume) throws CashCodeException {
+		checkPollingState();
+		if (!transition(CONNECTED | POWERED_UP, POLLING | CASSETTE_REMOVED, POLLING)) {
+			throw new InvalidCashCodeStateException("Device is already polling");
+		}
+		if (resume) {
+			resumeSession();
+		} else {
+			beginSession();
+		}
+	}
+
+	/**
+	 * Moves a device on a shared bus into polling by its {@link BusArbiter}, which powers up and enables bills on its
+	 * own schedule. Fails if the device is polling already, on its own or by another arbiter.
+	 */
+	void startBusSession() throws CashCodeException {
+		if (!transition(0, POLLING, POLLING)) {
+			throw new InvalidCashCodeStateException("Device is already polling");
+		}
+		beginSession();
+	}
+
+	void endBusSession() {
+		updateState(POLLING, false);
+	}
+
+	/**
+	 * The port failed while polling: the device is marked disconnected and no longer powered up, and the port is
+	 * closed rather than left half-open.
+	 */
+	private void connectionLost(SerialPortException e) {
+		logger.error("Connection lost: {}", e.getMessage());
+		metrics.onDisconnect();
+		updateState(CONNECTED | POWERED_UP | BILL_ENABLED, false);
+		closeQuietly();
+	}
+
+	private void closeQuietly() {
+		try {
+			link.close();
+		} catch (SerialPortException e) {
+			logger.debug("Failed closing a lost port: {}", e.getMessage());
+		}
+	}
 
-			sendPackage(BillValidatorCommand.IDENTIFICATION, new int[]{});
-			delay();
+	/**
+	 * Reopens the port with the settings of {@link #init} and powers the device up again. A bill the device reported
+	 * while the port was down is delivered to the listener.
+	 */
+	private CompletableFuture<Void> reconnect(CashCodeEvents eventListener) {
+		PortSettings settings = portSettings;
+		if (settings == null) {
+			return CompletableFuture.failedFuture(new PortNotConnectedException("Port is not connected. Init method should be called first"));
+		}
 
-			sendPackage(BillValidatorCommand.ACK, new int[]{});
-			delay();
+		try {
+			link.open(settings.baudRate, settings.dataBits, settings.stopBits, settings.parity);
+		} catch (SerialPortException e) {
+			return CompletableFuture.failedFuture(new PortException("Port error: " + e.getMessage()));
+		}
+		setConnected(true);
+		return powerUpSequence(reply -> handlePowerUpPoll(reply, eventListener));
+	}
 
-			sendPackage(BillValidatorCommand.POLL, new int[]{});
-			delay();
+	boolean isPollingEnabled() {
+		return isConnected() && isPoweredUp() && isBillEnabled();
+	}
 
-			int[] pollStatus = readPackage();
-			Optional<BillValidatorError> pollError = getDeviceError(pollStatus);
-			if (pollError.isPresent()) {
-				billValidatorErrorState = pollError.get();
-				sendPackage(BillValidatorCommand.NAK, new int[]{});
-				throw new PowerUpException("Power Up failed");
+	/**
+	 * One POLL exchange, run in the background of the command queue: the reply is dispatched to the listener and
+	 * ACKed. A POLL the link retried without getting a reply resets the device, and the cycle completes normally
+	 * either way; port errors complete it exceptionally with {@link SerialPortException}.
+	 */
+	CompletableFuture<Void> pollCycle(CashCodeEvents eventListener) {
+		return commands.run(CommandQueue.Priority.BACKGROUND, () -> link.request(BillValidatorCommand.POLL, NO_DATA).handle((pollResult, throwable) -> {
+			try {
+				if (throwable == null) {
+					resetFailed = false;
+					pollInterval.update(pollResult.getStatus());
+					handlePollReply(pollResult, eventListener);
+				} else if (unwrap(throwable) instanceof TimeoutException) {
+					pollInterval.update(-1);
+					return resetUnresponsive(eventListener);
+				} else {
+					throw new CompletionException(unwrap(throwable));
+				}
+				return CompletableFuture.<Void>completedFuture(null);
+			} catch (SerialPortException e) {
+				throw new CompletionException(e);
 			}
+		}).thenCompose(Function.identity()));
+	}
+
+	/**
+	 * Runs {@link PowerUpSequence#STEPS} again for a device that stopped answering: RESET unless the device answers as
+	 * initialized, then bills enabled as they were. The reply to its first POLL is delivered to the listener, it may
+	 * report a bill stacked while the device did not answer. After a failed reset the device is not reset again until it
+	 * answers. Runs within the poll task, which keeps the line until the sequence is done.
+	 */
+	private CompletableFuture<Void> resetUnresponsive(CashCodeEvents eventListener) {
+		if (resetFailed) {
+			return CompletableFuture.completedFuture(null);
+		}
 
-			sendPackage(BillValidatorCommand.ACK, new int[]{});
-			delay();
+		logger.warn("No reply to POLL after {} retries, resetting the device", link.getMaxRetries());
+		metrics.onDeviceReset();
+		PowerUpSequence sequence = newPowerUpSequence().deliverFirstPoll(reply -> handlePowerUpPoll(reply, eventListener));
+		return sequence.run().handle((run, throwable) -> {
+			if (throwable != null) {
+				resetFailed = true;
+				logger.error("Failed resetting the device: {}", unwrap(throwable).getMessage());
+			} else {
+				identified(run.getIdentification());
+				logger.info("Device reset, polling continues");
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Runs {@link PowerUpSequence#STEPS} as one control task, so no escrow decision or control command comes between
+	 * them, marking the device powered up once all of them succeed.
+	 */
+	private CompletableFuture<Void> powerUpSequence() {
+		return powerUpSequence(null);
+	}
+
+	/**
+	 * @param firstPollHandler handles the reply to the first POLL, null to ACK it
+	 */
+	private CompletableFuture<Void> powerUpSequence(PowerUpSequence.ReplyHandler firstPollHandler) {
+		if (!isConnected()) {
+			logger.error("Port is not connected");
+			return CompletableFuture.failedFuture(new PortNotConnectedException("Port is not connected. Init method should be called first"));
+		}
 
+		PowerUpSequence sequence = newPowerUpSequence().deliverFirstPoll(firstPollHandler);
+		return commands.run(CommandQueue.Priority.CONTROL, () -> sequence.run().thenCompose(run -> {
+			identified(run.getIdentification());
+			return loadCachedBillTable();
+		})).thenAccept(ignored -> {
 			setBillEnabled(true);
 			setPoweredUp(true);
 			logger.debug("Device powered up successfully");
-		} catch (SerialPortException e) {
-			logger.error("Failed powering up a device", e);
-			throw new GeneralCashCodeException("CashCode error: " + e.getMessage());
+		});
+	}
+
+	private PowerUpSequence newPowerUpSequence() {
+		return new PowerUpSequence(link, enableBillTypes(), getScheduler(), error -> billValidatorErrorState = error, logger);
+	}
+
+	private void identified(Frame reply) {
+		if (reply == null || reply.getDataLength() < DeviceIdentification.REPLY_LENGTH) {
+			logger.warn("Invalid identification reply: {}", reply);
+			return;
 		}
+
+		identification = DeviceIdentification.fromReply(reply);
+		logger.debug("Identified {}", identification);
 	}
 
-	@Override
-	public void powerDown() throws CashCodeException {
-		if (!isConnected) {
-			logger.debug("Device is not connected");
+	/**
+	 * Takes the bill table from the cache, or reads it from the device and caches it. A device that fails to send its
+	 * bill table does not fail the power up, its bills keep their current values.
+	 */
+	private CompletableFuture<Void> loadCachedBillTable() {
+		BillTableCache cache = billTableCache;
+		DeviceIdentification current = identification;
+		if (cache == null || current == null) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		DenominationTable cached = cache.get(current);
+		if (cached != null) {
+			logger.debug("Bill table of {} taken from the cache", current.serialNumber());
+			setDenominationTable(cached);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return requestBillTable().handle((table, throwable) -> {
+			if (throwable != null) {
+				logger.warn("Failed reading the bill table of {}: {}", current.serialNumber(), unwrap(throwable).getMessage());
+				return null;
+			}
+			setDenominationTable(table);
+			cacheBillTable(table);
+			return null;
+		});
+	}
+
+	private void cacheBillTable(DenominationTable table) {
+		BillTableCache cache = billTableCache;
+		DeviceIdentification current = identification;
+		if (cache == null || current == null) {
 			return;
 		}
 
 		try {
-			sendPackage(BillValidatorCommand.RESET, new int[]{});
-			delay();
+			cache.put(current, table);
+		} catch (IOException e) {
+			logger.error("Failed caching the bill table of {}", current.serialNumber(), e);
+		}
+	}
 
-			sendPackage(BillValidatorCommand.POLL, new int[]{0, 0, 0, 0, 0, 0});
-			delay();
+	/**
+	 * GET_BILL_TABLE exchange, the reply is ACKed and parsed.
+	 */
+	private CompletableFuture<DenominationTable> requestBillTable() {
+		return link.request(BillValidatorCommand.GET_BILL_TABLE, NO_DATA).handle((billTable, throwable) -> {
+			if (throwable != null && !(unwrap(throwable) instanceof TimeoutException)) {
+				logger.error(unwrap(throwable).getMessage());
+				throw new CompletionException(new GeneralCashCodeException("CashCode error: " + unwrap(throwable).getMessage()));
+			}
+			if (billTable == null || billTable.getDataLength() < DenominationTable.BILL_TYPES * 5) {
+				logger.error("Invalid bill table reply: {}", billTable);
+				throw new CompletionException(new GeneralCashCodeException("CashCode error. Invalid bill table reply"));
+			}
 
-			setPoweredUp(false);
-			logger.debug("Powered down successfully");
-		} catch (SerialPortException e) {
-			logger.error("Failed powering down a device", e);
-			throw new PowerDownException("Power down error: " + e.getMessage());
-		}
+			try {
+				sendPackage(BillValidatorCommand.ACK, NO_DATA);
+			} catch (SerialPortException e) {
+				logger.error(e.getMessage());
+				throw new CompletionException(new GeneralCashCodeException("CashCode error: " + e.getMessage()));
+			}
+			return DenominationTable.fromBillTable(billTable, minorUnitDigits);
+		});
 	}
 
-	@Override
-	public void startPolling(CashCodeEvents eventListener) throws CashCodeException {
-		logger.debug("Starting polling");
-		insertedMoney.clear();
+	/**
+	 * ENABLE_BILL_TYPES data: enabled bill types and bill types held in escrow, 3 bytes each, highest type first.
+	 */
+	private int[] enableBillTypes() {
+		int enabled = enabledBillTypes;
+		int escrow = escrowBillTypes;
+		return new int[]{enabled >> 16 & 0xFF, enabled >> 8 & 0xFF, enabled & 0xFF, escrow >> 16 & 0xFF, escrow >> 8 & 0xFF, escrow & 0xFF};
+	}
 
+	private void checkPollingState() throws CashCodeException {
 		if (!isConnected()) {
 			throw new InvalidCashCodeStateException("Device is not connected");
 		}
@@ -190,236 +830,460 @@ public class CashCodeSM implements CashCode {
 			throw new InvalidCashCodeStateException("Device is not powered up");
 		}
 
-		if (cassetteStatus != BillCassetteStatus.ESTABLISHED) {
+		if (getCassetteStatus() != BillCassetteStatus.ESTABLISHED) {
 			throw new InvalidCashCodeStateException("Device is not established");
 		}
+	}
 
-		while (isBillEnabled()) {
-			try {
-				sendPackage(BillValidatorCommand.POLL, new int[]{});
-				delay();
+	private void handlePollReply(Frame pollResult, CashCodeEvents eventListener) throws SerialPortException {
+		handlePollReply(pollResult, eventListener, true);
+	}
 
-				int[] pollResult = readPackage();
-				delay();
+	/**
+	 * Reply to the first POLL of a power up within the session, delivered like any poll reply. A bill in escrow gets no
+	 * decision, the RESET that follows returns it.
+	 */
+	private void handlePowerUpPoll(Frame pollResult, CashCodeEvents eventListener) throws SerialPortException {
+		handlePollReply(pollResult, eventListener, false);
+	}
 
-				// if there is no third byte, no event happened. just skipping the iteration
-				if (pollResult.length < 4) {
-					continue;
-				}
+	/**
+	 * Runs as part of the poll task on whatever thread the reply arrived on, so that a listener calling
+	 * {@link #stopPolling()} does not wait for the task it is called from.
+	 */
+	private void handlePollReply(Frame pollResult, CashCodeEvents eventListener, boolean escrowDecision) throws SerialPortException {
+		commands.continueTask(() -> dispatchPollReply(pollResult, eventListener, escrowDecision));
+	}
 
-				// if is idling, skipping the iteration. nothing happened
-				if (pollResult[3] == 0x14) {
-					continue;
-				}
+	private void dispatchPollReply(Frame pollResult, CashCodeEvents eventListener, boolean escrowDecision) throws SerialPortException {
+		PollStatus status = PollStatus.of(pollResult.getStatus());
+		Frame previous = lastReply;
+		lastReply = pollResult;
+		metrics.onPollStatus(pollResult.getStatus());
 
-				switch (pollResult[3]) {
-					case 0x13 -> {
-						logger.debug("E: Cassette initialized");
-						cassetteStatus = BillCassetteStatus.ESTABLISHED;
-						eventListener.onCassetteInitialize();
-					}
-					case 0x15 -> {
-						logger.debug("E: Accepted");
-						eventListener.onAccept();
-					}
-					case 0x17 -> {
-						logger.debug("E: Stacked");
-						eventListener.onStack();
-					}
-					case 0x18 -> {
-						logger.debug("E: Returning");
-						eventListener.onReturn();
-					}
-					case 0x42 -> {
-						logger.debug("E: Cassette removed");
-						cassetteStatus = BillCassetteStatus.REMOVED;
-						eventListener.onDropCassetteOutOfPosition();
-					}
-					case 0x80 -> {
-						logger.debug("E: Escrow position");
-						eventListener.onEscrowPosition();
-					}
-					case 0x81 -> {
-						logger.debug("E: Banknote inserted");
-						banknoteInserted(pollResult[4]);
-						eventListener.onBillStack(pollResult[4]);
-					}
-					case 0x82 -> {
-						logger.debug("E: Returned");
-						eventListener.onBillReturned();
-					}
-					case 0x1C -> {
-						logger.debug("E: Rejected");
-						eventListener.onReject();
-					}
-				}
+		EscrowControl escrow = escrowControl;
+		if (escrow != null && !status.isEscrow()) {
+			escrow.onEscrowLeft();
+		}
+		if (!status.isError() && status != PollStatus.OTHER) {
+			deviceError(BillValidatorError.NONE, eventListener);
+		}
 
-				sendPackage(BillValidatorCommand.ACK, new int[]{});
-				delay();
-			} catch (SerialPortException e) {
-				logger.error(e.getMessage());
-				throw new GeneralCashCodeException("CashCode error: " + e.getMessage());
+		// if is idling, skipping the iteration. nothing happened
+		if (status == PollStatus.IDLING) {
+			return;
+		}
+
+		// a lasting state or a reply the device repeats is delivered once, so a lost ACK never stacks a bill twice
+		if (previous == null || !previous.hasSameData(pollResult)) {
+			if (status == PollStatus.BILL_STACKED && !journaled(pollResult)) {
+				// not ACKed: the device reports the bill again, and it is delivered once it is on record
+				lastReply = previous;
+				return;
 			}
+			deliver(status, pollResult, eventListener);
+		}
+
+		sendPackage(BillValidatorCommand.ACK, NO_DATA);
+
+		// the decision goes out after the ACK, the device expects nothing else in between
+		if (escrowDecision && escrow != null && status == PollStatus.ESCROW_POSITION && pollResult.getDataLength() >= 2) {
+			escrow.onEscrow(pollResult.getData(1));
+		} else if (escrowDecision && escrow != null && status == PollStatus.HOLDING) {
+			escrow.onHolding();
 		}
 	}
 
-	@Override
-	public void stopPolling() throws CashCodeException {
-		logger.debug("Stopping polling");
-		setBillEnabled(false);
-		try {
-			sendPackage(BillValidatorCommand.ENABLE_BILL_TYPES, new int[]{0, 0, 0, 0, 0, 0});
-			delay();
-			int[] stopStatus = readPackage();
-			if (stopStatus.length < 4 || stopStatus[3] != 0x00) {
-				logger.error("CashCode error. Unknown error");
-				throw new GeneralCashCodeException("CashCode error. Unknown error");
+	private void deliver(PollStatus status, Frame pollResult, CashCodeEvents eventListener) {
+		switch (status) {
+			case INITIALIZE -> {
+				logger.debug("E: Cassette initialized");
+				updateState(CASSETTE_REMOVED, false);
+				eventListener.onCassetteInitialize();
+				publish(BillValidatorEvent.Type.CASSETTE_INITIALIZED, BillValidatorEvent.NO_BILL);
 			}
-			logger.debug("Stopped polling");
-		} catch (SerialPortException e) {
-			logger.error(e.getMessage());
-			throw new GeneralCashCodeException("CashCode error: " + e.getMessage());
+			case ACCEPTING -> {
+				logger.debug("E: Accepted");
+				if (acceptingAt == 0) {
+					acceptingAt = System.nanoTime();
+				}
+				eventListener.onAccept();
+				publish(BillValidatorEvent.Type.ACCEPTING, BillValidatorEvent.NO_BILL);
+			}
+			case STACKING -> {
+				logger.debug("E: Stacked");
+				eventListener.onStack();
+				publish(BillValidatorEvent.Type.STACKING, BillValidatorEvent.NO_BILL);
+			}
+			case RETURNING -> {
+				logger.debug("E: Returning");
+				billFinished(false);
+				eventListener.onReturn();
+				publish(BillValidatorEvent.Type.RETURNING, BillValidatorEvent.NO_BILL);
+			}
+			case DROP_CASSETTE_OUT_OF_POSITION -> {
+				logger.debug("E: Cassette removed");
+				updateState(CASSETTE_REMOVED, true);
+				deviceError(BillValidatorError.DROP_CASSETTE_OUT_OF_POSITION, eventListener);
+				eventListener.onDropCassetteOutOfPosition();
+				publish(BillValidatorEvent.Type.CASSETTE_OUT_OF_POSITION, BillValidatorEvent.NO_BILL);
+			}
+			case DROP_CASSETTE_FULL, VALIDATOR_JAMMED, DROP_CASSETTE_JAMMED, CHEATED, PAUSE, FAILURE ->
+					deviceError(PollStatus.errorOf(pollResult), eventListener);
+			case ESCROW_POSITION -> {
+				logger.debug("E: Escrow position");
+				if (escrowAt == 0) {
+					escrowAt = System.nanoTime();
+				}
+				eventListener.onEscrowPosition();
+				publish(BillValidatorEvent.Type.ESCROW_POSITION, BillValidatorEvent.NO_BILL);
+			}
+			case HOLDING -> logger.debug("E: Holding");
+			case BILL_STACKED -> {
+				if (pollResult.getDataLength() < 2) {
+					logger.warn("Bill stacked reply without bill type: {}", pollResult);
+					break;
+				}
+				logger.debug("E: Banknote inserted");
+				billFinished(true);
+				banknoteInserted(pollResult.getData(1));
+				eventListener.onBillStack(pollResult.getData(1));
+				publish(BillValidatorEvent.Type.BILL_STACKED, pollResult.getData(1));
+			}
+			case BILL_RETURNED -> {
+				logger.debug("E: Returned");
+				eventListener.onBillReturned();
+				publish(BillValidatorEvent.Type.BILL_RETURNED, BillValidatorEvent.NO_BILL);
+			}
+			case REJECTING -> {
+				logger.debug("E: Rejected, reason {}", pollResult.getDataLength() > 1 ? pollResult.getData(1) : -1);
+				billFinished(false);
+				eventListener.onReject();
+				publish(BillValidatorEvent.Type.REJECTED, BillValidatorEvent.NO_BILL);
+			}
+			case POWER_UP, POWER_UP_WITH_BILL_IN_VALIDATOR, POWER_UP_WITH_BILL_IN_STACKER ->
+					logger.warn("Device restarted while polling: {}, it needs a power up", status);
+			case UNIT_DISABLED -> {
+				if (enabledBillTypes != 0) {
+					logger.warn("Device reports bills disabled while polling");
+				}
+			}
+			case DEVICE_BUSY -> logger.debug("E: Busy");
+			case IDLING -> {
+			}
+			case ILLEGAL_COMMAND, OTHER -> logger.warn("Unexpected poll reply: {}", pollResult);
 		}
 	}
 
-	@Override
-	public void setLogger(Logger logger) {
-		this.logger = logger;
+	/**
+	 * Reports a device error, or that it cleared, to the listener once when it changes.
+	 */
+	private void deviceError(BillValidatorError error, CashCodeEvents eventListener) {
+		if (billValidatorErrorState == error) {
+			return;
+		}
+
+		billValidatorErrorState = error;
+		if (error == BillValidatorError.NONE) {
+			logger.info("Device error cleared");
+		} else {
+			logger.error("Device error: {}", error);
+		}
+		eventListener.onError(error);
+		publish(BillValidatorEvent.Type.ERROR, BillValidatorEvent.NO_BILL, error);
 	}
 
-	@Override
-	public List<Integer> getInsertedBanknotes() {
-		return this.insertedMoney;
+	private void publish(BillValidatorEvent.Type type, int billType) {
+		publish(type, billType, BillValidatorError.NONE);
 	}
 
-	@Override
-	public BillValidatorError getError() {
-		return this.billValidatorErrorState;
+	/**
+	 * Numbers the event, which listeners were just given, and publishes it.
+	 */
+	private void publish(BillValidatorEvent.Type type, int billType, BillValidatorError error) {
+		long sequence = ++eventSequence;
+		BillValidatorEventPublisher publisher = eventPublisher;
+		if (publisher != null) {
+			publisher.publish(new BillValidatorEvent(sequence, Instant.now(), type, billType, error));
+		}
 	}
 
-	public void setSerialPort(SerialPort serialPort) {
-		logger.debug("Setting serial port to %s".formatted(serialPort));
-		this.serialPort = serialPort;
+	private void billFinished(boolean stacked) {
+		long startedAt = escrowAt != 0 ? escrowAt : acceptingAt;
+		if (stacked && startedAt != 0) {
+			metrics.onEscrowToStack(System.nanoTime() - startedAt);
+		}
+		acceptingAt = 0;
+		escrowAt = 0;
 	}
 
 	private void banknoteInserted(int code) {
-		this.insertedMoney.add(code);
+		this.ledger.append(code);
 	}
 
-	private boolean isConnected() {
-		return isConnected;
+	/**
+	 * Writes a stacked bill to the journal, if one is set, before the ACK lets the device forget the bill. Returns false
+	 * if the bill could not be written.
+	 */
+	private boolean journaled(Frame pollResult) {
+		BanknoteJournal currentJournal = journal;
+		if (currentJournal == null || pollResult.getDataLength() < 2) {
+			return true;
+		}
+
+		int code = pollResult.getData(1);
+		try {
+			DeviceIdentification device = identification;
+			currentJournal.append(link.getAddress(), device != null ? device.serialNumber() : null, code, ledger.getDenominationTable().getValue(code));
+			return true;
+		} catch (IOException e) {
+			logger.error("Failed journaling bill type {}, leaving it unacknowledged", code, e);
+			return false;
+		}
 	}
 
-	private void setConnected(boolean connected) {
-		logger.debug("Setting connected = %s".formatted(connected));
-		isConnected = connected;
+	boolean isConnected() {
+		return hasState(CONNECTED);
 	}
 
-	private boolean isPoweredUp() {
-		return isPoweredUp;
+	void setConnected(boolean connected) {
+		logger.debug("Setting connected = {}", connected);
+		updateState(CONNECTED, connected);
 	}
 
-	private void setPoweredUp(boolean poweredUp) {
-		logger.debug("Setting powered up = %s".formatted(poweredUp));
-		isPoweredUp = poweredUp;
+	boolean isPoweredUp() {
+		return hasState(POWERED_UP);
 	}
 
-	private boolean isBillEnabled() {
-		return isBillEnabled;
+	void setPoweredUp(boolean poweredUp) {
+		logger.debug("Setting powered up = {}", poweredUp);
+		updateState(POWERED_UP, poweredUp);
 	}
 
-	private void setBillEnabled(boolean billEnabled) {
-		logger.debug("Setting bill enabled = %s".formatted(billEnabled));
-		isBillEnabled = billEnabled;
+	boolean isBillEnabled() {
+		return hasState(BILL_ENABLED);
 	}
 
-	private void sendPackage(BillValidatorCommand command, int[] data) throws SerialPortException {
-		logger.debug("--> C-%s D-%s".formatted(command.name(), Arrays.toString(data)));
-		serialPort.writeIntArray(buildPackage(command.getCode(), data));
+	void setBillEnabled(boolean billEnabled) {
+		logger.debug("Setting bill enabled = {}", billEnabled);
+		updateState(BILL_ENABLED, billEnabled);
+	}
+
+	private boolean hasState(int flag) {
+		return (state.get() & flag) != 0;
 	}
 
-	private int[] readPackage() throws SerialPortException {
-		return serialPort.readIntArray();
+	private void updateState(int flag, boolean set) {
+		int current;
+		do {
+			current = state.get();
+		} while (!state.compareAndSet(current, set ? current | flag : current & ~flag));
 	}
 
-	private Optional<BillValidatorError> getDeviceError(int[] receivedBytes) {
-		if (receivedBytes.length < 4) {
-			return Optional.of(BillValidatorError.GENERIC_FAILURE);
+	/**
+	 * Sets the given flags if all required flags are set and none of the forbidden ones, atomically.
+	 */
+	private boolean transition(int required, int forbidden, int set) {
+		int current;
+		do {
+			current = state.get();
+			if ((current & required) != required || (current & forbidden) != 0) {
+				return false;
+			}
+		} while (!state.compareAndSet(current, current | set));
+		return true;
+	}
+
+	private void sendPackage(BillValidatorCommand command, int[] data) throws SerialPortException {
+		logger.debug("--> C-{} D-{}", command, data);
+		link.send(command, data);
+	}
+
+	/**
+	 * Sends the command and waits for its reply. Returns null if the device did not reply in time.
+	 */
+	private Frame transceive(BillValidatorCommand command, int[] data) throws SerialPortException {
+		logger.debug("--> C-{} D-{}", command, data);
+
+		try {
+			return link.transceive(command, data);
+		} catch (TimeoutException e) {
+			logger.warn(e.getMessage());
+			return null;
 		}
+	}
 
-		return switch (receivedBytes[3]) {
-			case 0x30 -> Optional.of(BillValidatorError.ILLEGAL_COMMAND);
-			case 0x41 -> Optional.of(BillValidatorError.DROP_CASSETTE_FULL);
-			case 0x42 -> Optional.of(BillValidatorError.DROP_CASSETTE_OUT_OF_POSITION);
-			case 0x43 -> Optional.of(BillValidatorError.VALIDATOR_JAMMED);
-			case 0x44 -> Optional.of(BillValidatorError.DROP_CASSETTE_JAMMED);
-			case 0x45 -> Optional.of(BillValidatorError.CHEATED);
-			case 0x46 -> Optional.of(BillValidatorError.PAUSE);
-			case 0x47 -> {
-				if (receivedBytes.length < 5) {
-					yield Optional.of(BillValidatorError.GENERIC_FAILURE);
-				}
+	private ScheduledExecutorService getScheduler() {
+		return scheduler != null ? scheduler : DefaultScheduler.INSTANCE;
+	}
 
-				yield switch (receivedBytes[4]) {
-					case 0x50 -> Optional.of(BillValidatorError.STACK_MOTOR_FAILURE);
-					case 0x51 -> Optional.of(BillValidatorError.TRANSPORT_MOTOR_SPEED_FAILURE);
-					case 0x52 -> Optional.of(BillValidatorError.TRANSPORT_MOTOR_FAILURE);
-					case 0x53 -> Optional.of(BillValidatorError.ALIGNING_MOTOR_FAILURE);
-					case 0x54 -> Optional.of(BillValidatorError.INITIAL_CASSETTE_STATUS_FAILURE);
-					case 0x55 -> Optional.of(BillValidatorError.OPTIC_CANAL_FAILURE);
-					case 0x56 -> Optional.of(BillValidatorError.MAGNETIC_CANAL_FAILURE);
-					case 0x5F -> Optional.of(BillValidatorError.CAPACITANCE_CANAL_FAILURE);
-					default -> Optional.of(BillValidatorError.GENERIC_FAILURE);
-				};
+	private CompletionStage<Void> runAsync(CashCodeAction action) {
+		CompletableFuture<Void> result = new CompletableFuture<>();
+		getScheduler().execute(() -> {
+			try {
+				action.run();
+				result.complete(null);
+			} catch (Exception e) {
+				result.completeExceptionally(e);
 			}
-			default -> Optional.empty();
-		};
+		});
+		return result;
+	}
+
+	static Throwable unwrap(Throwable throwable) {
+		return throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
 	}
 
-	private void delay() {
+	private void delay(long millis) {
 		try {
-			Thread.sleep(DELAY_TIME_MS);
+			Thread.sleep(millis);
 		} catch (InterruptedException ignored) {
 		}
 	}
 
-	private int[] buildPackage(int command, int[] data) {
-		int length = data.length + 6;
-		int[] commandArr = new int[256];
-		commandArr[0] = 0x02;       //sync
-		commandArr[1] = 0x03;       //valid address
-		commandArr[2] = length;     //length
-		commandArr[3] = command;    //command
+	@FunctionalInterface
+	private interface CashCodeAction {
+		void run() throws CashCodeException;
+	}
+
+	static final class DefaultScheduler {
+		static final ScheduledExecutorService INSTANCE = Executors.newScheduledThreadPool(2, runnable -> {
+			Thread thread = new Thread(runnable, "cashcode-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private record PortSettings(int baudRate, int dataBits, int stopBits, int parity) {
+	}
 
-		if (data.length != 0) {
-			int i = 4, d = 0;
-			while (d != data.length) {
-				commandArr[i] = data[d];
-				i += 1;
-				d += 1;
+	private final class SupervisedPolling implements PollingHandle {
+		private final CashCodeEvents eventListener;
+		private final ReconnectPolicy reconnectPolicy;
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+		private volatile boolean cancelled = false;
+		private volatile AsyncPolling current;
+
+		private SupervisedPolling(CashCodeEvents eventListener, ReconnectPolicy reconnectPolicy) {
+			this.eventListener = eventListener;
+			this.reconnectPolicy = reconnectPolicy;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			AsyncPolling polling = current;
+			if (polling != null) {
+				polling.cancel();
 			}
 		}
-		int[] crcPacket = Arrays.copyOfRange(commandArr, 0, length - 2);
-		int crcValue = getCrc16(crcPacket);
-		commandArr[length - 1] = (crcValue >> 8) & 0xFF;
-		commandArr[length - 2] = crcValue & 0xFF;
-		return Arrays.copyOfRange(commandArr, 0, length);
-	}
-
-	private int getCrc16(int[] arr) {
-		int i, tmpCrc = 0;
-		byte j;
-		for (i = 0; i <= arr.length - 1; i++) {
-			tmpCrc ^= arr[i];
-			for (j = 0; j <= 7; j++) {
-				if ((tmpCrc & 0x0001) != 0) {
-					tmpCrc >>= 1;
-					tmpCrc ^= 0x08408;    // 0x08408 = Polynomial
+
+		@Override
+		public boolean isActive() {
+			return !completion.isDone();
+		}
+
+		@Override
+		public CompletionStage<Void> completion() {
+			return completion;
+		}
+
+		private void poll(boolean resume) {
+			AsyncPolling polling = pollAsync(eventListener, resume);
+			current = polling;
+			if (cancelled) {
+				polling.cancel();
+			}
+
+			polling.completion.whenComplete((ignored, throwable) -> {
+				if (throwable == null) {
+					completion.complete(null);
+				} else if (!isConnected() && !cancelled) {
+					reconnect(1);
 				} else {
-					tmpCrc >>= 1;
+					completion.completeExceptionally(unwrap(throwable));
 				}
+			});
+		}
+
+		private void reconnect(int attempt) {
+			long delayMs = reconnectPolicy.getDelayMs(attempt);
+			logger.info("Reconnecting in {} ms, attempt {}", delayMs, attempt);
+			getScheduler().schedule(() -> {
+				if (cancelled) {
+					completion.complete(null);
+					return;
+				}
+
+				CashCodeSM.this.reconnect(eventListener).whenComplete((ignored, throwable) -> {
+					if (throwable == null) {
+						logger.info("Reconnected, resuming polling");
+						metrics.onReconnect();
+						poll(true);
+						return;
+					}
+
+					logger.warn("Reconnect attempt {} failed: {}", attempt, unwrap(throwable).getMessage());
+					updateState(CONNECTED | POWERED_UP | BILL_ENABLED, false);
+					closeQuietly();
+					if (reconnectPolicy.canRetry(attempt)) {
+						reconnect(attempt + 1);
+					} else {
+						completion.completeExceptionally(unwrap(throwable));
+					}
+				});
+			}, delayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private final class AsyncPolling implements PollingHandle {
+		private final CashCodeEvents eventListener;
+		private final CompletableFuture<Void> completion = new CompletableFuture<>();
+		private volatile boolean cancelled = false;
+		private volatile long scheduledAt;
+
+		private AsyncPolling(CashCodeEvents eventListener) {
+			this.eventListener = eventListener;
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+		}
+
+		@Override
+		public boolean isActive() {
+			return !completion.isDone();
+		}
+
+		@Override
+		public CompletionStage<Void> completion() {
+			return completion;
+		}
+
+		private void cycle() {
+			if (cancelled || !isBillEnabled()) {
+				logger.debug("Async polling finished");
+				completion.complete(null);
+				return;
+			}
+			if (scheduledAt != 0) {
+				metrics.onPollJitter(System.nanoTime() - scheduledAt);
 			}
+
+			pollCycle(eventListener).whenComplete((ignored, throwable) -> {
+				if (throwable == null) {
+					long intervalMs = pollInterval.getIntervalMs();
+					scheduledAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMs);
+					getScheduler().schedule(this::cycle, intervalMs, TimeUnit.MILLISECONDS);
+				} else if (unwrap(throwable) instanceof SerialPortException e) {
+					connectionLost(e);
+					completion.completeExceptionally(new GeneralCashCodeException("CashCode error: " + e.getMessage()));
+				} else {
+					logger.error("Async polling failed", unwrap(throwable));
+					completion.completeExceptionally(unwrap(throwable));
+				}
+			});
 		}
-		return tmpCrc;
 	}
 }
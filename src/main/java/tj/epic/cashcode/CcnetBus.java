@@ -0,0 +1,452 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * CCNET bus over a {@link Transport}, usually a serial port: encodes commands, decodes replies and matches each reply to the command that is
+ * waiting for it. Several peripherals may share the bus, each at its own address. Exchanges are strictly one at a
+ * time, as the bus is half-duplex, and a reply is only accepted from the address the pending command was sent to.
+ * <p>
+ * A command the device did not answer in time, or answered with NAK, is sent again. A reply with a bad CRC is NAKed
+ * for the device to repeat it. Only once the retries are used up does the exchange fail.
+ */
+public class CcnetBus {
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	private static final long READ_PARK_NS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final int[] NO_DATA = {};
+
+	private final Object lock = new Object();
+	private final PacketEncoder[] packetEncoders = new PacketEncoder[256];
+	private final FrameDecoder frameDecoder = new FrameDecoder(this::onFrame);
+	private final Transport.Receiver receiver = new Transport.Receiver() {
+		@Override
+		public void onData(int[] data) {
+			receive(data);
+		}
+
+		@Override
+		public void onError(SerialPortException e) {
+			onReceiveError(e);
+		}
+	};
+
+	private Transport transport;
+	private ReceiveMode receiveMode = ReceiveMode.BLOCKING;
+	private Logger logger = LoggerFactory.getLogger(CcnetBus.class);
+	private volatile CashCodeMetrics metrics = CashCodeMetrics.NONE;
+	private volatile FrameTracer frameTracer;
+	private volatile int maxRetries = DEFAULT_MAX_RETRIES;
+
+	// address the pending command was sent to
+	private volatile int pendingAddress = -1;
+
+	// reply slot for blocking mode, and whether a reply with a bad CRC came instead
+	private Frame received;
+	private boolean corrupted;
+
+	// reply future for event driven mode and the exchange queued last
+	private volatile CompletableFuture<Frame> pending;
+	private CompletableFuture<Frame> lastExchange = CompletableFuture.completedFuture(null);
+
+	public CcnetBus() {
+		frameDecoder.setCrcErrorHandler(this::onCrcError);
+	}
+
+	public void setSerialPort(SerialPort serialPort) {
+		setTransport(new SerialPortTransport(serialPort));
+	}
+
+	/**
+	 * Serial port of the bus, null if the bus runs over another transport.
+	 */
+	public SerialPort getSerialPort() {
+		return transport instanceof SerialPortTransport serialPortTransport ? serialPortTransport.getSerialPort() : null;
+	}
+
+	public void setTransport(Transport transport) {
+		this.transport = transport;
+	}
+
+	public Transport getTransport() {
+		return transport;
+	}
+
+	public void setLogger(Logger logger) {
+		this.logger = logger;
+	}
+
+	public void setMetrics(CashCodeMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Times a command is sent again after a missing, NAK or corrupted reply, 2 by default. 0 fails the exchange on the
+	 * first one.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		if (maxRetries < 0) {
+			throw new IllegalArgumentException("Invalid number of retries: " + maxRetries);
+		}
+		this.maxRetries = maxRetries;
+	}
+
+	public int getMaxRetries() {
+		return maxRetries;
+	}
+
+	/**
+	 * Records the bytes sent and received in the tracer, null to stop tracing.
+	 */
+	public void setFrameTracer(FrameTracer frameTracer) {
+		this.frameTracer = frameTracer;
+	}
+
+	public FrameTracer getFrameTracer() {
+		return frameTracer;
+	}
+
+	public ReceiveMode getReceiveMode() {
+		return receiveMode;
+	}
+
+	public void setReceiveMode(ReceiveMode receiveMode) throws SerialPortException {
+		synchronized (lock) {
+			if (this.receiveMode == receiveMode) {
+				return;
+			}
+
+			this.receiveMode = receiveMode;
+			if (isOpened()) {
+				transport.setReceiver(receiveMode == ReceiveMode.EVENT_DRIVEN ? receiver : null);
+			}
+		}
+	}
+
+	public void open(int baudRate, int dataBits, int stopBits, int parity) throws SerialPortException {
+		synchronized (lock) {
+			transport.open(baudRate, dataBits, stopBits, parity);
+			if (receiveMode == ReceiveMode.EVENT_DRIVEN) {
+				transport.setReceiver(receiver);
+			}
+		}
+	}
+
+	public boolean isOpened() {
+		return transport != null && transport.isOpened();
+	}
+
+	public void close() throws SerialPortException {
+		synchronized (lock) {
+			CompletableFuture<Frame> response = pending;
+			if (response != null) {
+				response.completeExceptionally(new SerialPortException(transport.getName(), "close", "Port closed"));
+			}
+
+			try {
+				if (receiveMode == ReceiveMode.EVENT_DRIVEN) {
+					transport.setReceiver(null);
+				}
+			} finally {
+				transport.close();
+			}
+		}
+	}
+
+	/**
+	 * Sends a command the device does not reply to (ACK, NAK).
+	 */
+	public void send(int address, BillValidatorCommand command, int[] data) throws SerialPortException {
+		synchronized (lock) {
+			write(address, command, data);
+		}
+	}
+
+	/**
+	 * Sends a command and blocks until its reply arrives. A NAK reply is returned once the retries are used up.
+	 *
+	 * @throws TimeoutException if no valid reply came within the command timeout, retries included
+	 */
+	public Frame transceive(int address, BillValidatorCommand command, int[] data) throws SerialPortException, TimeoutException {
+		if (receiveMode == ReceiveMode.BLOCKING) {
+			return exchangeBlocking(address, command, data);
+		}
+
+		try {
+			return request(address, command, data).get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof SerialPortException serialPortException) {
+				throw serialPortException;
+			}
+			if (e.getCause() instanceof TimeoutException timeoutException) {
+				throw timeoutException;
+			}
+			throw new IllegalStateException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new TimeoutException("Interrupted while waiting for reply to " + command);
+		}
+	}
+
+	/**
+	 * Sends a command and returns the future of its reply. The future fails with {@link TimeoutException} if no valid
+	 * reply came within the command timeout, retries included, or with {@link SerialPortException} if the port failed.
+	 * In event driven mode the call does not block: if another exchange is in flight, this one is sent after it.
+	 */
+	public CompletableFuture<Frame> request(int address, BillValidatorCommand command, int[] data) {
+		if (receiveMode == ReceiveMode.BLOCKING) {
+			try {
+				return CompletableFuture.completedFuture(exchangeBlocking(address, command, data));
+			} catch (SerialPortException | TimeoutException e) {
+				return CompletableFuture.failedFuture(e);
+			}
+		}
+
+		int[] payload = data.length == 0 ? data : data.clone();
+		synchronized (lock) {
+			CompletableFuture<Frame> exchange = lastExchange
+					.handle((frame, throwable) -> null)
+					.thenCompose(ignored -> exchangeAsync(address, command, payload, 0, false));
+			lastExchange = exchange;
+			return exchange;
+		}
+	}
+
+	private PacketEncoder encoder(int address) {
+		PacketEncoder encoder = packetEncoders[address];
+		if (encoder == null) {
+			encoder = new PacketEncoder(address);
+			packetEncoders[address] = encoder;
+		}
+		return encoder;
+	}
+
+	private Frame exchangeBlocking(int address, BillValidatorCommand command, int[] data) throws SerialPortException, TimeoutException {
+		synchronized (lock) {
+			// a late reply to a previous command must not be taken for the reply to this one
+			frameDecoder.reset();
+			pendingAddress = address;
+
+			try {
+				int retries = maxRetries;
+				boolean repeatReply = false;
+				for (int retry = 0; ; retry++) {
+					received = null;
+					corrupted = false;
+					long sentAt = System.nanoTime();
+					if (repeatReply) {
+						write(address, BillValidatorCommand.NAK, NO_DATA);
+					} else {
+						write(address, command, data);
+					}
+
+					long deadline = sentAt + TimeUnit.MILLISECONDS.toNanos(command.getResponseTimeoutMs());
+					while (received == null && !corrupted && System.nanoTime() - deadline < 0) {
+						int[] chunk = transport.read();
+						if (chunk == null || chunk.length == 0) {
+							LockSupport.parkNanos(READ_PARK_NS);
+							continue;
+						}
+						receive(chunk);
+					}
+
+					Frame frame = received;
+					received = null;
+					if (frame != null && !isNak(frame)) {
+						metrics.onRoundTrip(command, System.nanoTime() - sentAt);
+						return frame;
+					}
+					// a corrupted reply counts as a timeout if it is the last one
+					if (frame == null && (!corrupted || retry == retries)) {
+						metrics.onTimeout(command);
+					}
+
+					if (retry == retries) {
+						if (frame != null) {
+							return frame;
+						}
+						throw noReply(address, command, retry);
+					}
+					repeatReply = corrupted;
+					retransmit(address, command, frame, repeatReply);
+				}
+			} finally {
+				pendingAddress = -1;
+			}
+		}
+	}
+
+	private CompletableFuture<Frame> exchangeAsync(int address, BillValidatorCommand command, int[] data, int retry, boolean repeatReply) {
+		return attemptAsync(address, command, data, repeatReply).handle((frame, throwable) -> {
+			Throwable cause = CashCodeSM.unwrap(throwable);
+			boolean failed = frame != null ? isNak(frame) : cause instanceof TimeoutException || cause instanceof CorruptedReplyException;
+			if (!failed) {
+				return frame != null ? CompletableFuture.completedFuture(frame) : CompletableFuture.<Frame>failedFuture(cause);
+			}
+
+			if (retry >= maxRetries) {
+				if (frame != null) {
+					return CompletableFuture.completedFuture(frame);
+				}
+				if (cause instanceof CorruptedReplyException) {
+					metrics.onTimeout(command);
+				}
+				return CompletableFuture.<Frame>failedFuture(noReply(address, command, retry));
+			}
+			boolean corruptedReply = cause instanceof CorruptedReplyException;
+			retransmit(address, command, frame, corruptedReply);
+			return exchangeAsync(address, command, data, retry + 1, corruptedReply);
+		}).thenCompose(Function.identity());
+	}
+
+	/**
+	 * Sends the command once, or NAK for the device to repeat its reply. The future fails with
+	 * {@link CorruptedReplyException} if a reply with a bad CRC came.
+	 */
+	private CompletableFuture<Frame> attemptAsync(int address, BillValidatorCommand command, int[] data, boolean repeatReply) {
+		CompletableFuture<Frame> response = new CompletableFuture<>();
+		long sentAt;
+		synchronized (lock) {
+			pending = response;
+			pendingAddress = address;
+			try {
+				sentAt = System.nanoTime();
+				if (repeatReply) {
+					write(address, BillValidatorCommand.NAK, NO_DATA);
+				} else {
+					write(address, command, data);
+				}
+			} catch (SerialPortException e) {
+				pending = null;
+				pendingAddress = -1;
+				response.completeExceptionally(e);
+				return response;
+			}
+		}
+
+		return response
+				.orTimeout(command.getResponseTimeoutMs(), TimeUnit.MILLISECONDS)
+				.whenComplete((frame, throwable) -> {
+					synchronized (lock) {
+						if (pending == response) {
+							pending = null;
+							pendingAddress = -1;
+						}
+					}
+
+					if (throwable == null) {
+						if (!isNak(frame)) {
+							metrics.onRoundTrip(command, System.nanoTime() - sentAt);
+						}
+					} else if (throwable instanceof TimeoutException) {
+						metrics.onTimeout(command);
+					}
+				});
+	}
+
+	private void retransmit(int address, BillValidatorCommand command, Frame reply, boolean repeatReply) {
+		metrics.onRetransmit(command);
+		if (repeatReply) {
+			logger.debug("Corrupted reply to {} from {}, asking to repeat it", command, address);
+		} else if (reply != null) {
+			logger.debug("{} NAKed by {}, sending it again", command, address);
+		} else {
+			logger.debug("No reply to {} from {}, sending it again", command, address);
+		}
+	}
+
+	private static TimeoutException noReply(int address, BillValidatorCommand command, int retries) {
+		return new TimeoutException("No reply to %s from %s within %s ms, %s retries".formatted(command, address, command.getResponseTimeoutMs(), retries));
+	}
+
+	// a lone 0xFF, replies such as GET_STATUS may start with 0xFF too
+	private static boolean isNak(Frame frame) {
+		return frame.getDataLength() == 1 && frame.getStatus() == BillValidatorCommand.NAK.getCode();
+	}
+
+	private void write(int address, BillValidatorCommand command, int[] data) throws SerialPortException {
+		byte[] frame = encoder(address).encode(command, data);
+		transport.write(frame);
+		metrics.onFrameSent(command);
+
+		FrameTracer tracer = frameTracer;
+		if (tracer != null) {
+			tracer.sent(frame);
+		}
+	}
+
+	private void receive(int[] chunk) {
+		FrameTracer tracer = frameTracer;
+		if (tracer != null) {
+			tracer.received(chunk);
+		}
+		frameDecoder.feed(chunk);
+	}
+
+	private void onReceiveError(SerialPortException e) {
+		logger.error("Failed reading port", e);
+		CompletableFuture<Frame> response = pending;
+		if (response != null) {
+			response.completeExceptionally(e);
+		}
+	}
+
+	// the frame decoder dropped a frame, the reply to the pending command if one is pending
+	private void onCrcError() {
+		metrics.onCrcError();
+		if (pendingAddress < 0) {
+			return;
+		}
+
+		if (receiveMode == ReceiveMode.BLOCKING) {
+			corrupted = true;
+			return;
+		}
+
+		CompletableFuture<Frame> response = pending;
+		if (response != null) {
+			response.completeExceptionally(new CorruptedReplyException());
+		}
+	}
+
+	private void onFrame(Frame frame) {
+		metrics.onFrameReceived(frame);
+		if (frame.getAddress() != pendingAddress) {
+			logger.warn("Dropping frame not addressed to the pending command: {}", frame);
+			return;
+		}
+		if (isNak(frame)) {
+			metrics.onNak();
+		}
+
+		if (receiveMode == ReceiveMode.BLOCKING) {
+			if (received == null) {
+				received = frame;
+			}
+			return;
+		}
+
+		CompletableFuture<Frame> response = pending;
+		if (response == null || !response.complete(frame)) {
+			logger.warn("Dropping unexpected frame: {}", frame);
+		}
+	}
+
+	private static final class CorruptedReplyException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		private CorruptedReplyException() {
+			super("Reply with a bad CRC", null, false, false);
+		}
+	}
+}
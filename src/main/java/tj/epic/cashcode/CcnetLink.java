@@ -0,0 +1,140 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import org.slf4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * CCNET link to a single device: a {@link CcnetBus} bound to the device address. A link either owns its bus, or shares
+ * it with the links of other peripherals on the same serial line; in that case the bus is opened and closed by its
+ * owner, see {@link BusArbiter}.
+ */
+public class CcnetLink {
+	private final int address;
+	private final CcnetBus bus;
+	private final boolean ownsBus;
+
+	public CcnetLink(int address) {
+		this(address, new CcnetBus(), true);
+	}
+
+	public CcnetLink(int address, CcnetBus bus) {
+		this(address, bus, false);
+	}
+
+	private CcnetLink(int address, CcnetBus bus, boolean ownsBus) {
+		if (address < 0 || address > 0xFF) {
+			throw new IllegalArgumentException("Invalid device address: " + address);
+		}
+		this.address = address;
+		this.bus = bus;
+		this.ownsBus = ownsBus;
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	public CcnetBus getBus() {
+		return bus;
+	}
+
+	public void setSerialPort(SerialPort serialPort) {
+		bus.setSerialPort(serialPort);
+	}
+
+	public SerialPort getSerialPort() {
+		return bus.getSerialPort();
+	}
+
+	public void setTransport(Transport transport) {
+		bus.setTransport(transport);
+	}
+
+	public Transport getTransport() {
+		return bus.getTransport();
+	}
+
+	public void setLogger(Logger logger) {
+		if (ownsBus) {
+			bus.setLogger(logger);
+		}
+	}
+
+	/**
+	 * Sets the metrics of the bus, unless the bus is shared with other devices.
+	 */
+	public void setMetrics(CashCodeMetrics metrics) {
+		if (ownsBus) {
+			bus.setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * Sets the wire tracer of the bus, unless the bus is shared with other devices.
+	 */
+	public void setFrameTracer(FrameTracer frameTracer) {
+		if (ownsBus) {
+			bus.setFrameTracer(frameTracer);
+		}
+	}
+
+	/**
+	 * Sets the retries of the bus, unless the bus is shared with other devices, see {@link CcnetBus#setMaxRetries}.
+	 */
+	public void setMaxRetries(int maxRetries) {
+		if (ownsBus) {
+			bus.setMaxRetries(maxRetries);
+		}
+	}
+
+	public int getMaxRetries() {
+		return bus.getMaxRetries();
+	}
+
+	public ReceiveMode getReceiveMode() {
+		return bus.getReceiveMode();
+	}
+
+	public void setReceiveMode(ReceiveMode receiveMode) throws SerialPortException {
+		bus.setReceiveMode(receiveMode);
+	}
+
+	/**
+	 * Opens the port. A shared bus that is already open is left as it is.
+	 */
+	public void open(int baudRate, int dataBits, int stopBits, int parity) throws SerialPortException {
+		if (!ownsBus && bus.isOpened()) {
+			return;
+		}
+		bus.open(baudRate, dataBits, stopBits, parity);
+	}
+
+	public boolean isOpened() {
+		return bus.isOpened();
+	}
+
+	/**
+	 * Closes the port, unless the bus is shared with other devices.
+	 */
+	public void close() throws SerialPortException {
+		if (ownsBus) {
+			bus.close();
+		}
+	}
+
+	public void send(BillValidatorCommand command, int[] data) throws SerialPortException {
+		bus.send(address, command, data);
+	}
+
+	public Frame transceive(BillValidatorCommand command, int[] data) throws SerialPortException, TimeoutException {
+		return bus.transceive(address, command, data);
+	}
+
+	public CompletableFuture<Frame> request(BillValidatorCommand command, int[] data) {
+		return bus.request(address, command, data);
+	}
+}
@@ -0,0 +1,185 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPortException;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Single writer of a device: every exchange with the device runs as a task of its queue, one at a time, so that no
+ * command comes between a poll reply and its ACK. Waiting tasks run highest priority first, in order of submission
+ * within a priority; polls run in the background, so a control command waits for one exchange at most. Tasks run on
+ * the thread that frees the line, which in blocking receive mode is the thread of the exchange that finished last.
+ */
+final class CommandQueue {
+	enum Priority {
+		/**
+		 * Escrow decisions, the device waits for them with the bill in escrow.
+		 */
+		ESCROW,
+		/**
+		 * Control commands: bill types, status, identification.
+		 */
+		CONTROL,
+		/**
+		 * Polls.
+		 */
+		BACKGROUND
+	}
+
+	private final CcnetLink link;
+	// iterated highest priority first
+	private final Map<Priority, Queue<Task<?>>> queues = new EnumMap<>(Priority.class);
+	private final AtomicBoolean busy = new AtomicBoolean();
+
+	// threads starting a task or continuing one, a task submitted from them runs only after that task
+	private final Set<Thread> runners = ConcurrentHashMap.newKeySet();
+
+	CommandQueue(CcnetLink link) {
+		this.link = link;
+		for (Priority priority : Priority.values()) {
+			queues.put(priority, new ConcurrentLinkedQueue<>());
+		}
+	}
+
+	/**
+	 * Sends the command once its turn comes and completes with the reply. The data is taken when the command is sent;
+	 * null data drops the command and completes the future with null.
+	 */
+	CompletableFuture<Frame> submit(BillValidatorCommand command, Priority priority, Supplier<int[]> data) {
+		return run(priority, () -> {
+			int[] payload = data.get();
+			return payload != null ? link.request(command, payload) : CompletableFuture.completedFuture(null);
+		});
+	}
+
+	/**
+	 * Runs an exchange of several frames, e.g. a poll and its ACK, with the line to itself.
+	 */
+	<T> CompletableFuture<T> run(Priority priority, Supplier<CompletableFuture<T>> exchange) {
+		Task<T> task = new Task<>(exchange);
+		queues.get(priority).add(task);
+		if (busy.compareAndSet(false, true)) {
+			runNext();
+		}
+		return task.result;
+	}
+
+	/**
+	 * Whether the current thread is running a task, e.g. an event listener called from a poll. Waiting for a task
+	 * submitted from there would never end.
+	 */
+	boolean isRunningTask() {
+		return runners.contains(Thread.currentThread());
+	}
+
+	/**
+	 * Runs a step of the current task on the thread it continues on, e.g. handling a reply that arrived on a receive
+	 * thread, so that {@link #isRunningTask()} holds there as well.
+	 */
+	void continueTask(TaskStep step) throws SerialPortException {
+		Thread thread = Thread.currentThread();
+		boolean added = runners.add(thread);
+		try {
+			step.run();
+		} finally {
+			if (added) {
+				runners.remove(thread);
+			}
+		}
+	}
+
+	/**
+	 * Number of tasks waiting for the line.
+	 */
+	int size() {
+		int size = 0;
+		for (Queue<Task<?>> queue : queues.values()) {
+			size += queue.size();
+		}
+		return size;
+	}
+
+	/**
+	 * Runs waiting tasks while holding the line, returns once the queue is empty or a task waits for its reply.
+	 */
+	private void runNext() {
+		while (true) {
+			Task<?> task = next();
+			if (task == null) {
+				busy.set(false);
+				// a task added after the queue was found empty, its submitter saw the line busy
+				if (size() == 0 || !busy.compareAndSet(false, true)) {
+					return;
+				}
+				continue;
+			}
+
+			CompletableFuture<?> done;
+			Thread thread = Thread.currentThread();
+			boolean added = runners.add(thread);
+			try {
+				done = task.start();
+			} finally {
+				if (added) {
+					runners.remove(thread);
+				}
+			}
+			if (!done.isDone()) {
+				done.whenComplete((ignored, throwable) -> runNext());
+				return;
+			}
+		}
+	}
+
+	private Task<?> next() {
+		for (Queue<Task<?>> queue : queues.values()) {
+			Task<?> task = queue.poll();
+			if (task != null) {
+				return task;
+			}
+		}
+		return null;
+	}
+
+	@FunctionalInterface
+	interface TaskStep {
+		void run() throws SerialPortException;
+	}
+
+	private static final class Task<T> {
+		private final Supplier<CompletableFuture<T>> exchange;
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+
+		private Task(Supplier<CompletableFuture<T>> exchange) {
+			this.exchange = exchange;
+		}
+
+		/**
+		 * Starts the exchange, the returned future completes once the line is free again.
+		 */
+		private CompletableFuture<?> start() {
+			CompletableFuture<T> started;
+			try {
+				started = exchange.get();
+			} catch (RuntimeException e) {
+				started = CompletableFuture.failedFuture(e);
+			}
+
+			return started.whenComplete((value, throwable) -> {
+				if (throwable != null) {
+					result.completeExceptionally(CashCodeSM.unwrap(throwable));
+				} else {
+					result.complete(value);
+				}
+			});
+		}
+	}
+}
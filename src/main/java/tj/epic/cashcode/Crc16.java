@@ -0,0 +1,47 @@
+package tj.epic.cashcode;
+
+/**
+ * CRC16 used by CCNET, polynomial 0x8408. Table driven, one lookup per byte.
+ */
+public final class Crc16 {
+	private static final int POLYNOMIAL = 0x08408;
+	private static final int[] TABLE = new int[256];
+
+	static {
+		for (int i = 0; i < TABLE.length; i++) {
+			int crc = i;
+			for (int j = 0; j <= 7; j++) {
+				if ((crc & 0x0001) != 0) {
+					crc >>= 1;
+					crc ^= POLYNOMIAL;
+				} else {
+					crc >>= 1;
+				}
+			}
+			TABLE[i] = crc;
+		}
+	}
+
+	private Crc16() {
+	}
+
+	public static int update(int crc, int b) {
+		return (crc >>> 8) ^ TABLE[(crc ^ b) & 0xFF];
+	}
+
+	public static int compute(int[] arr, int offset, int length) {
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++) {
+			crc = update(crc, arr[i]);
+		}
+		return crc;
+	}
+
+	public static int compute(byte[] arr, int offset, int length) {
+		int crc = 0;
+		for (int i = offset; i < offset + length; i++) {
+			crc = update(crc, arr[i]);
+		}
+		return crc;
+	}
+}
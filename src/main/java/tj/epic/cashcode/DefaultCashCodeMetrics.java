@@ -0,0 +1,199 @@
+package tj.epic.cashcode;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of a device, updated without locks and readable over JMX.
+ */
+public class DefaultCashCodeMetrics implements CashCodeMetrics, CashCodeMetricsMXBean {
+	private final LongAdder framesSent = new LongAdder();
+	private final LongAdder framesReceived = new LongAdder();
+	private final LongAdder crcErrors = new LongAdder();
+	private final LongAdder naks = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder retransmits = new LongAdder();
+	private final LongAdder deviceResets = new LongAdder();
+	private final LongAdder disconnects = new LongAdder();
+	private final LongAdder reconnects = new LongAdder();
+	private final LongAdder[] pollStatuses = new LongAdder[256];
+
+	private final LatencyHistogram roundTrip = new LatencyHistogram();
+	private final LatencyHistogram escrowToStack = new LatencyHistogram();
+	private final LatencyHistogram pollJitter = new LatencyHistogram();
+
+	private ObjectName objectName;
+
+	public DefaultCashCodeMetrics() {
+		for (int i = 0; i < pollStatuses.length; i++) {
+			pollStatuses[i] = new LongAdder();
+		}
+	}
+
+	/**
+	 * Registers the metrics with the platform MBean server as tj.epic.cashcode:type=CashCode,name=&lt;name&gt;.
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName registered = new ObjectName("tj.epic.cashcode:type=CashCode,name=" + ObjectName.quote(name));
+		server.registerMBean(this, registered);
+		objectName = registered;
+	}
+
+	public synchronized void unregisterMBean() throws JMException {
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+			objectName = null;
+		}
+	}
+
+	public synchronized ObjectName getObjectName() {
+		return objectName;
+	}
+
+	@Override
+	public void onFrameSent(BillValidatorCommand command) {
+		framesSent.increment();
+	}
+
+	@Override
+	public void onFrameReceived(Frame frame) {
+		framesReceived.increment();
+	}
+
+	@Override
+	public void onCrcError() {
+		crcErrors.increment();
+	}
+
+	@Override
+	public void onNak() {
+		naks.increment();
+	}
+
+	@Override
+	public void onTimeout(BillValidatorCommand command) {
+		timeouts.increment();
+	}
+
+	@Override
+	public void onRetransmit(BillValidatorCommand command) {
+		retransmits.increment();
+	}
+
+	@Override
+	public void onDeviceReset() {
+		deviceResets.increment();
+	}
+
+	@Override
+	public void onRoundTrip(BillValidatorCommand command, long nanos) {
+		roundTrip.record(nanos);
+	}
+
+	@Override
+	public void onPollStatus(int status) {
+		pollStatuses[status & 0xFF].increment();
+	}
+
+	@Override
+	public void onEscrowToStack(long nanos) {
+		escrowToStack.record(nanos);
+	}
+
+	@Override
+	public void onPollJitter(long nanos) {
+		pollJitter.record(nanos);
+	}
+
+	@Override
+	public void onDisconnect() {
+		disconnects.increment();
+	}
+
+	@Override
+	public void onReconnect() {
+		reconnects.increment();
+	}
+
+	@Override
+	public long getFramesSent() {
+		return framesSent.sum();
+	}
+
+	@Override
+	public long getFramesReceived() {
+		return framesReceived.sum();
+	}
+
+	@Override
+	public long getCrcErrors() {
+		return crcErrors.sum();
+	}
+
+	@Override
+	public long getNaks() {
+		return naks.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public long getRetransmits() {
+		return retransmits.sum();
+	}
+
+	@Override
+	public long getDeviceResets() {
+		return deviceResets.sum();
+	}
+
+	@Override
+	public long getDisconnects() {
+		return disconnects.sum();
+	}
+
+	@Override
+	public long getReconnects() {
+		return reconnects.sum();
+	}
+
+	@Override
+	public Map<String, Long> getPollStatusCounts() {
+		Map<String, Long> counts = new TreeMap<>();
+		for (int status = 0; status < pollStatuses.length; status++) {
+			long count = pollStatuses[status].sum();
+			if (count > 0) {
+				counts.put("0x%02X".formatted(status), count);
+			}
+		}
+		return counts;
+	}
+
+	public long getPollStatusCount(int status) {
+		return pollStatuses[status & 0xFF].sum();
+	}
+
+	@Override
+	public LatencySnapshot getRoundTrip() {
+		return roundTrip.snapshot();
+	}
+
+	@Override
+	public LatencySnapshot getEscrowToStack() {
+		return escrowToStack.snapshot();
+	}
+
+	@Override
+	public LatencySnapshot getPollJitter() {
+		return pollJitter.snapshot();
+	}
+}
@@ -0,0 +1,109 @@
+package tj.epic.cashcode;
+
+import java.util.Arrays;
+
+/**
+ * Value of every bill type (code) the validator reports, in minor currency units. Immutable.
+ */
+public final class DenominationTable {
+	// CCNET bill types 0..23
+	public static final int BILL_TYPES = 24;
+
+	private static final int BILL_TABLE_ENTRY_LENGTH = 5;
+	private static final DenominationTable EMPTY = new DenominationTable(new long[BILL_TYPES], new String[BILL_TYPES]);
+
+	private final long[] values;
+	private final String[] currencies;
+
+	/**
+	 * @param values value of each bill type in minor currency units, 0 for unused types
+	 */
+	public DenominationTable(long[] values) {
+		this(Arrays.copyOf(values, BILL_TYPES), new String[BILL_TYPES]);
+	}
+
+	DenominationTable(long[] values, String[] currencies) {
+		this.values = values;
+		this.currencies = currencies;
+	}
+
+	public static DenominationTable empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Parses a GET_BILL_TABLE reply: 24 entries of a digit, a 3 letter country code and a power of ten
+	 * (bit 7 set for a negative power).
+	 *
+	 * @param minorUnitDigits digits of the minor currency unit, 2 for cents
+	 */
+	public static DenominationTable fromBillTable(Frame reply, int minorUnitDigits) {
+		if (reply.getDataLength() < BILL_TYPES * BILL_TABLE_ENTRY_LENGTH) {
+			throw new IllegalArgumentException("Bill table reply too short: %s bytes".formatted(reply.getDataLength()));
+		}
+
+		long[] values = new long[BILL_TYPES];
+		String[] currencies = new String[BILL_TYPES];
+		for (int code = 0; code < BILL_TYPES; code++) {
+			int offset = code * BILL_TABLE_ENTRY_LENGTH;
+			int digit = reply.getData(offset);
+			if (digit == 0) {
+				continue;
+			}
+
+			currencies[code] = new String(new char[]{
+					(char) reply.getData(offset + 1),
+					(char) reply.getData(offset + 2),
+					(char) reply.getData(offset + 3),
+			}).trim();
+
+			int exponent = reply.getData(offset + 4);
+			int power = minorUnitDigits + ((exponent & 0x80) != 0 ? -(exponent & 0x7F) : exponent);
+			long value = digit;
+			for (int i = 0; i < Math.abs(power); i++) {
+				value = power > 0 ? value * 10 : value / 10;
+			}
+			values[code] = value;
+		}
+		return new DenominationTable(values, currencies);
+	}
+
+	public long getValue(int code) {
+		return code >= 0 && code < BILL_TYPES ? values[code] : 0;
+	}
+
+	/**
+	 * ISO country/currency code of the bill type as reported by the validator, null if unknown.
+	 */
+	public String getCurrency(int code) {
+		return code >= 0 && code < BILL_TYPES ? currencies[code] : null;
+	}
+
+	/**
+	 * Bill type mask, as taken by {@link CashCodeSM#setBillTypes(int, int)}, of the known bills worth at most the given
+	 * value, e.g. the amount still due.
+	 */
+	public int typesUpTo(long value) {
+		int mask = 0;
+		for (int code = 0; code < BILL_TYPES; code++) {
+			if (values[code] > 0 && values[code] <= value) {
+				mask |= 1 << code;
+			}
+		}
+		return mask;
+	}
+
+	public boolean isEmpty() {
+		for (long value : values) {
+			if (value != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "DenominationTable" + Arrays.toString(values);
+	}
+}
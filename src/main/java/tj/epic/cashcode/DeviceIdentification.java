@@ -0,0 +1,43 @@
+package tj.epic.cashcode;
+
+/**
+ * Identification of a validator, from its IDENTIFICATION reply.
+ *
+ * @param partNumber   part number, which names the firmware, e.g. "SM-RU1353"
+ * @param serialNumber factory serial number
+ * @param assetNumber  asset number, 7 bytes
+ */
+public record DeviceIdentification(String partNumber, String serialNumber, long assetNumber) {
+	private static final int PART_NUMBER_LENGTH = 15;
+	private static final int SERIAL_NUMBER_LENGTH = 12;
+	private static final int ASSET_NUMBER_LENGTH = 7;
+	static final int REPLY_LENGTH = PART_NUMBER_LENGTH + SERIAL_NUMBER_LENGTH + ASSET_NUMBER_LENGTH;
+
+	/**
+	 * Parses an IDENTIFICATION reply: 15 ASCII characters of part number, 12 of serial number and 7 bytes of asset
+	 * number.
+	 */
+	public static DeviceIdentification fromReply(Frame reply) {
+		if (reply.getDataLength() < REPLY_LENGTH) {
+			throw new IllegalArgumentException("Identification reply too short: %s bytes".formatted(reply.getDataLength()));
+		}
+
+		long assetNumber = 0;
+		for (int i = 0; i < ASSET_NUMBER_LENGTH; i++) {
+			assetNumber = assetNumber << 8 | reply.getData(PART_NUMBER_LENGTH + SERIAL_NUMBER_LENGTH + i);
+		}
+		return new DeviceIdentification(
+				ascii(reply, 0, PART_NUMBER_LENGTH),
+				ascii(reply, PART_NUMBER_LENGTH, SERIAL_NUMBER_LENGTH),
+				assetNumber);
+	}
+
+	private static String ascii(Frame reply, int offset, int length) {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			int value = reply.getData(offset + i);
+			chars[i] = value == 0 ? ' ' : (char) value;
+		}
+		return new String(chars).trim();
+	}
+}
@@ -0,0 +1,10 @@
+package tj.epic.cashcode;
+
+public enum DeviceState {
+	REGISTERED,
+	POWERING_UP,
+	POLLING,
+	STOPPING,
+	STOPPED,
+	FAILED,
+}
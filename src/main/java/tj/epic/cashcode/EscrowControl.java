@@ -0,0 +1,132 @@
+package tj.epic.cashcode;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escrow decisions of a polling session. The handler is asked once a bill reaches escrow, and its decision is sent as
+ * soon as it completes rather than on the next poll, ahead of any other queued command. A bill without a decision by the escrow timeout is returned.
+ */
+final class EscrowControl {
+	static final long DEFAULT_TIMEOUT_MS = 8000;
+
+	private final CommandQueue commands;
+	private final EscrowHandler handler;
+	private final long timeoutNs;
+	private final Logger logger;
+
+	// bill in escrow, -1 if none; the generation tells decisions for an earlier bill apart
+	private volatile int billType = -1;
+	private int generation = 0;
+	private boolean decided = false;
+	private long deadline;
+	private long askAgainAt;
+	private boolean held = false;
+
+	EscrowControl(CommandQueue commands, EscrowHandler handler, long timeoutMs, Logger logger) {
+		this.commands = commands;
+		this.handler = handler;
+		this.timeoutNs = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		this.logger = logger;
+	}
+
+	/**
+	 * The device reported the bill in escrow.
+	 */
+	synchronized void onEscrow(int billType) {
+		long now = System.nanoTime();
+		if (this.billType == -1) {
+			this.billType = billType;
+			int current = ++generation;
+			decided = false;
+			held = false;
+			deadline = now + timeoutNs;
+			ask(current, billType);
+			return;
+		}
+
+		if (decided) {
+			return;
+		}
+		if (now - deadline >= 0) {
+			logger.warn("No escrow decision for bill type {} within the escrow timeout, returning it", billType);
+			send(EscrowDecision.RETURN);
+		} else if (held && now - askAgainAt >= 0) {
+			held = false;
+			ask(generation, billType);
+		}
+	}
+
+	/**
+	 * The device reported holding the bill after HOLD. The reply carries no bill type, the one reported in escrow is
+	 * kept.
+	 */
+	synchronized void onHolding() {
+		if (billType != -1) {
+			onEscrow(billType);
+		}
+	}
+
+	/**
+	 * The device reported anything but escrow, the bill in escrow, if any, was stacked or returned.
+	 */
+	void onEscrowLeft() {
+		if (billType == -1) {
+			return;
+		}
+
+		synchronized (this) {
+			billType = -1;
+			generation++;
+		}
+	}
+
+	private void ask(int current, int billType) {
+		CompletionStage<EscrowDecision> decision;
+		try {
+			decision = handler.onEscrow(billType);
+		} catch (RuntimeException e) {
+			decision = CompletableFuture.failedFuture(e);
+		}
+
+		decision.whenComplete((result, throwable) -> {
+			if (throwable != null || result == null) {
+				logger.error("Escrow handler failed for bill type {}, returning it", billType, throwable);
+				decide(current, EscrowDecision.RETURN);
+			} else {
+				decide(current, result);
+			}
+		});
+	}
+
+	private synchronized void decide(int current, EscrowDecision decision) {
+		// the bill left escrow or the decision was already taken by the timeout
+		if (current != generation || decided) {
+			return;
+		}
+
+		if (decision == EscrowDecision.HOLD) {
+			long now = System.nanoTime();
+			held = true;
+			deadline = now + timeoutNs;
+			askAgainAt = now + timeoutNs / 2;
+		}
+		send(decision);
+	}
+
+	private void send(EscrowDecision decision) {
+		decided = decision != EscrowDecision.HOLD;
+		logger.debug("Escrow decision for bill type {}: {}", billType, decision);
+
+		commands.submit(decision.getCommand(), CommandQueue.Priority.ESCROW, () -> CashCodeSM.NO_DATA).whenComplete((reply, throwable) -> {
+			if (throwable != null) {
+				logger.error("Failed sending escrow decision {}", decision, CashCodeSM.unwrap(throwable));
+			} else if (reply.getStatus() != 0x00) {
+				logger.error("Escrow decision {} refused: {}", decision, reply);
+			}
+		});
+	}
+}
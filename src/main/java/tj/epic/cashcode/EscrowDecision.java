@@ -0,0 +1,23 @@
+package tj.epic.cashcode;
+
+/**
+ * What to do with a bill held in escrow.
+ */
+public enum EscrowDecision {
+	// accept the bill into the cassette
+	STACK(BillValidatorCommand.STACK),
+	// give the bill back to the customer
+	RETURN(BillValidatorCommand.RETURN),
+	// keep the bill in escrow for another escrow timeout, the handler is asked again before it runs out
+	HOLD(BillValidatorCommand.HOLD);
+
+	private final BillValidatorCommand command;
+
+	EscrowDecision(BillValidatorCommand command) {
+		this.command = command;
+	}
+
+	public BillValidatorCommand getCommand() {
+		return command;
+	}
+}
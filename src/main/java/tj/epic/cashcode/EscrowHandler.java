@@ -0,0 +1,24 @@
+package tj.epic.cashcode;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.function.IntFunction;
+
+/**
+ * Decides what happens to a bill in escrow. The decision may complete later, from any thread, but must complete within
+ * the escrow timeout of the device, see {@link CashCodeSM#setEscrowTimeoutMs(long)}; otherwise the bill is returned.
+ */
+@FunctionalInterface
+public interface EscrowHandler {
+	/**
+	 * @param billType bill type from the bill table
+	 */
+	CompletionStage<EscrowDecision> onEscrow(int billType);
+
+	/**
+	 * Handler deciding right away, e.g. {@code EscrowHandler.of(billType -> fits(billType) ? STACK : RETURN)}.
+	 */
+	static EscrowHandler of(IntFunction<EscrowDecision> decider) {
+		return billType -> CompletableFuture.completedFuture(decider.apply(billType));
+	}
+}
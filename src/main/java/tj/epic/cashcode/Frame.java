@@ -0,0 +1,53 @@
+package tj.epic.cashcode;
+
+import java.util.Arrays;
+
+/**
+ * A complete, CRC-verified CCNET frame. Only the address and the data bytes are kept, SYNC, length and CRC are
+ * dropped once the frame is validated.
+ */
+public final class Frame {
+	private final int address;
+	private final int[] data;
+
+	Frame(int address, int[] data) {
+		this.address = address;
+		this.data = data;
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	public int getDataLength() {
+		return data.length;
+	}
+
+	public int getData(int index) {
+		return data[index];
+	}
+
+	public int[] getData() {
+		return data.clone();
+	}
+
+	/**
+	 * First data byte: the status code for POLL replies, 0x00 (ACK) or 0xFF (NAK) for control commands.
+	 * Returns -1 for a frame without data.
+	 */
+	public int getStatus() {
+		return data.length > 0 ? data[0] : -1;
+	}
+
+	/**
+	 * Whether the other frame carries the same data bytes, e.g. a reply repeated because its ACK was lost.
+	 */
+	boolean hasSameData(Frame other) {
+		return Arrays.equals(data, other.data);
+	}
+
+	@Override
+	public String toString() {
+		return "Frame{address=%s, data=%s}".formatted(address, Arrays.toString(data));
+	}
+}
@@ -0,0 +1,119 @@
+package tj.epic.cashcode;
+
+import java.util.function.Consumer;
+
+/**
+ * Streaming CCNET frame decoder. Bytes are fed as they arrive from the port, in chunks of any size; every complete
+ * frame with a valid CRC16 is handed to the frame handler. Bytes outside a frame and frames with a bad length or CRC
+ * are dropped, decoding resumes at the next SYNC byte.
+ */
+public final class FrameDecoder {
+	public static final int SYNC = 0x02;
+	public static final int MIN_FRAME_LENGTH = 6;
+	public static final int MAX_FRAME_LENGTH = 255;
+
+	private final Consumer<Frame> frameHandler;
+	private Runnable crcErrorHandler = () -> {};
+	private final int[] buffer = new int[MAX_FRAME_LENGTH];
+	private int received = 0;
+
+	private long crcErrors = 0;
+	private long discardedBytes = 0;
+
+	public FrameDecoder(Consumer<Frame> frameHandler) {
+		this.frameHandler = frameHandler;
+	}
+
+	/**
+	 * Called for every frame dropped because of a bad CRC.
+	 */
+	public void setCrcErrorHandler(Runnable crcErrorHandler) {
+		this.crcErrorHandler = crcErrorHandler;
+	}
+
+	public void feed(int[] chunk) {
+		if (chunk == null) {
+			return;
+		}
+
+		for (int b : chunk) {
+			feed(b);
+		}
+	}
+
+	public void feed(byte[] chunk, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			feed(chunk[i]);
+		}
+	}
+
+	public void feed(int b) {
+		b &= 0xFF;
+		if (received == 0 && b != SYNC) {
+			discardedBytes++;
+			return;
+		}
+
+		buffer[received++] = b;
+		decode();
+	}
+
+	/**
+	 * Drops a partially received frame.
+	 */
+	public void reset() {
+		discardedBytes += received;
+		received = 0;
+	}
+
+	public long getCrcErrors() {
+		return crcErrors;
+	}
+
+	public long getDiscardedBytes() {
+		return discardedBytes;
+	}
+
+	private void decode() {
+		while (received >= 3) {
+			int length = buffer[2];
+			if (length < MIN_FRAME_LENGTH) {
+				resync();
+				continue;
+			}
+
+			if (received < length) {
+				return;
+			}
+
+			int crc = buffer[length - 2] | (buffer[length - 1] << 8);
+			if (Crc16.compute(buffer, 0, length - 2) != crc) {
+				crcErrors++;
+				crcErrorHandler.run();
+				resync();
+				continue;
+			}
+
+			int[] data = new int[length - 5];
+			System.arraycopy(buffer, 3, data, 0, data.length);
+			int address = buffer[1];
+			shift(length);
+			frameHandler.accept(new Frame(address, data));
+		}
+	}
+
+	// the current SYNC did not start a valid frame, continue from the next SYNC already in the buffer
+	private void resync() {
+		int next = 1;
+		while (next < received && buffer[next] != SYNC) {
+			next++;
+		}
+		discardedBytes += next;
+		shift(next);
+	}
+
+	private void shift(int count) {
+		received -= count;
+		System.arraycopy(buffer, count, buffer, 0, received);
+	}
+}
@@ -0,0 +1,130 @@
+package tj.epic.cashcode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Wire trace of a bus: the last bytes sent and received, kept in a preallocated ring so that tracing does not allocate
+ * or format anything. The ring is dumped as timestamped hex lines on demand, e.g. when a device misbehaves in the field.
+ * Sent bytes are recorded a frame per record, received bytes a read chunk per record, as they came from the port.
+ */
+public final class FrameTracer {
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private static final int MAX_RECORD_LENGTH = FrameDecoder.MAX_FRAME_LENGTH;
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss.SSSSSS").withZone(ZoneId.systemDefault());
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+	private final int capacity;
+	private final long[] timestamps;
+	private final boolean[] sent;
+	private final int[] lengths;
+	private final byte[] bytes;
+
+	// wall clock time of nanoTime 0, to print timestamps taken with nanoTime
+	private final long epochNanosOffset;
+	private long records = 0;
+
+	public FrameTracer() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity number of frames and read chunks kept
+	 */
+	public FrameTracer(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity: " + capacity);
+		}
+		this.capacity = capacity;
+		this.timestamps = new long[capacity];
+		this.sent = new boolean[capacity];
+		this.lengths = new int[capacity];
+		this.bytes = new byte[capacity * MAX_RECORD_LENGTH];
+
+		Instant now = Instant.now();
+		this.epochNanosOffset = now.getEpochSecond() * 1_000_000_000L + now.getNano() - System.nanoTime();
+	}
+
+	public synchronized void sent(byte[] frame) {
+		int slot = next(true, frame.length);
+		System.arraycopy(frame, 0, bytes, slot * MAX_RECORD_LENGTH, lengths[slot]);
+	}
+
+	public synchronized void received(int[] chunk) {
+		if (chunk == null || chunk.length == 0) {
+			return;
+		}
+
+		int slot = next(false, chunk.length);
+		int offset = slot * MAX_RECORD_LENGTH;
+		for (int i = 0; i < lengths[slot]; i++) {
+			bytes[offset + i] = (byte) chunk[i];
+		}
+	}
+
+	/**
+	 * Number of records kept, at most the capacity.
+	 */
+	public synchronized int size() {
+		return (int) Math.min(records, capacity);
+	}
+
+	public synchronized void clear() {
+		records = 0;
+	}
+
+	/**
+	 * Writes the kept records, oldest first, one line each: time, TX or RX, bytes in hex.
+	 */
+	public void dump(Appendable out) throws IOException {
+		long[] recordTimestamps;
+		boolean[] recordSent;
+		byte[][] recordBytes;
+		synchronized (this) {
+			int size = size();
+			recordTimestamps = new long[size];
+			recordSent = new boolean[size];
+			recordBytes = new byte[size][];
+			long first = records - size;
+			for (int i = 0; i < size; i++) {
+				int slot = (int) ((first + i) % capacity);
+				recordTimestamps[i] = timestamps[slot];
+				recordSent[i] = sent[slot];
+				recordBytes[i] = new byte[lengths[slot]];
+				System.arraycopy(bytes, slot * MAX_RECORD_LENGTH, recordBytes[i], 0, lengths[slot]);
+			}
+		}
+
+		for (int i = 0; i < recordTimestamps.length; i++) {
+			long epochNanos = recordTimestamps[i] + epochNanosOffset;
+			out.append(TIME_FORMAT.format(Instant.ofEpochSecond(0, epochNanos)));
+			out.append(recordSent[i] ? " TX" : " RX");
+			for (byte b : recordBytes[i]) {
+				out.append(' ').append(HEX[(b >> 4) & 0x0F]).append(HEX[b & 0x0F]);
+			}
+			out.append(System.lineSeparator());
+		}
+	}
+
+	public String dump() {
+		StringBuilder out = new StringBuilder();
+		try {
+			dump(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toString();
+	}
+
+	private int next(boolean isSent, int length) {
+		int slot = (int) (records++ % capacity);
+		timestamps[slot] = System.nanoTime();
+		sent[slot] = isSent;
+		lengths[slot] = Math.min(length, MAX_RECORD_LENGTH);
+		return slot;
+	}
+}
@@ -0,0 +1,141 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPortException;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Transport to devices in the same process, e.g. {@link tj.epic.cashcode.simulator.BillValidatorSimulator}. Like a
+ * shared RS-485 line, every connected device gets every byte written; devices answer through {@link #deliver(int[])}.
+ */
+public class InMemoryTransport implements Transport {
+	private static final int INITIAL_BUFFER_SIZE = 256;
+
+	private final String name;
+	private final List<Consumer<byte[]>> devices = new CopyOnWriteArrayList<>();
+	private volatile boolean opened = false;
+	private volatile boolean unplugged = false;
+	private volatile Receiver receiver;
+
+	// bytes delivered while there is no receiver
+	private int[] buffer = new int[INITIAL_BUFFER_SIZE];
+	private int buffered = 0;
+
+	public InMemoryTransport() {
+		this("memory");
+	}
+
+	public InMemoryTransport(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Connects a device, which gets a copy of every write.
+	 */
+	public void connect(Consumer<byte[]> device) {
+		devices.add(device);
+	}
+
+	public void disconnect(Consumer<byte[]> device) {
+		devices.remove(device);
+	}
+
+	/**
+	 * Bytes sent by a device to the controller. Dropped while the transport is closed.
+	 */
+	public void deliver(int[] data) {
+		if (!opened) {
+			return;
+		}
+
+		Receiver current = receiver;
+		if (current != null) {
+			current.onData(data.clone());
+			return;
+		}
+
+		synchronized (this) {
+			if (buffered + data.length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + data.length));
+			}
+			System.arraycopy(data, 0, buffer, buffered, data.length);
+			buffered += data.length;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Acts as a USB adapter going away: the transport closes, the receiver gets the error and opening fails until
+	 * {@link #plug()}.
+	 */
+	public void unplug() {
+		unplugged = true;
+		opened = false;
+
+		Receiver current = receiver;
+		if (current != null) {
+			current.onError(new SerialPortException(name, "read", "Device unplugged"));
+		}
+	}
+
+	public void plug() {
+		unplugged = false;
+	}
+
+	@Override
+	public synchronized void open(int baudRate, int dataBits, int stopBits, int parity) throws SerialPortException {
+		if (unplugged) {
+			throw new SerialPortException(name, "open", SerialPortException.TYPE_PORT_NOT_FOUND);
+		}
+		buffered = 0;
+		opened = true;
+	}
+
+	@Override
+	public boolean isOpened() {
+		return opened;
+	}
+
+	@Override
+	public synchronized void close() {
+		opened = false;
+		buffered = 0;
+	}
+
+	@Override
+	public void write(byte[] bytes) throws SerialPortException {
+		if (!opened) {
+			throw new SerialPortException(name, "write", SerialPortException.TYPE_PORT_NOT_OPENED);
+		}
+
+		for (Consumer<byte[]> device : devices) {
+			device.accept(bytes.clone());
+		}
+	}
+
+	@Override
+	public synchronized int[] read() throws SerialPortException {
+		if (!opened) {
+			throw new SerialPortException(name, "read", SerialPortException.TYPE_PORT_NOT_OPENED);
+		}
+		if (buffered == 0) {
+			return null;
+		}
+
+		int[] result = Arrays.copyOf(buffer, buffered);
+		buffered = 0;
+		return result;
+	}
+
+	@Override
+	public void setReceiver(Receiver receiver) {
+		this.receiver = receiver;
+	}
+}
@@ -0,0 +1,66 @@
+package tj.epic.cashcode;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with power of two buckets. Percentiles are reported as the upper bound of their bucket,
+ * so they are accurate within a factor of two, which is enough to see a validator degrading.
+ */
+public final class LatencyHistogram {
+	private static final int BUCKETS = 64;
+
+	// bucket i holds values below 2^i and at least 2^(i-1)
+	private final LongAdder[] buckets = new LongAdder[BUCKETS];
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+	public LatencyHistogram() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	public LatencySnapshot snapshot() {
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets[i].sum();
+			total += counts[i];
+		}
+
+		long maxNanos = max.get();
+		return new LatencySnapshot(
+				total,
+				total == 0 ? 0 : sum.sum() / total,
+				percentile(counts, total, 0.5, maxNanos),
+				percentile(counts, total, 0.99, maxNanos),
+				maxNanos
+		);
+	}
+
+	private static long percentile(long[] counts, long total, double quantile, long maxNanos) {
+		if (total == 0) {
+			return 0;
+		}
+
+		long rank = (long) Math.ceil(total * quantile);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return i == 0 ? 0 : Math.min((1L << i) - 1, maxNanos);
+			}
+		}
+		return maxNanos;
+	}
+}
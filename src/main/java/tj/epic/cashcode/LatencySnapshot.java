@@ -0,0 +1,48 @@
+package tj.epic.cashcode;
+
+import javax.management.ConstructorParameters;
+
+/**
+ * Latency histogram values at one point in time, in nanoseconds.
+ */
+public final class LatencySnapshot {
+	private final long count;
+	private final long meanNanos;
+	private final long p50Nanos;
+	private final long p99Nanos;
+	private final long maxNanos;
+
+	@ConstructorParameters({"count", "meanNanos", "p50Nanos", "p99Nanos", "maxNanos"})
+	public LatencySnapshot(long count, long meanNanos, long p50Nanos, long p99Nanos, long maxNanos) {
+		this.count = count;
+		this.meanNanos = meanNanos;
+		this.p50Nanos = p50Nanos;
+		this.p99Nanos = p99Nanos;
+		this.maxNanos = maxNanos;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getMeanNanos() {
+		return meanNanos;
+	}
+
+	public long getP50Nanos() {
+		return p50Nanos;
+	}
+
+	public long getP99Nanos() {
+		return p99Nanos;
+	}
+
+	public long getMaxNanos() {
+		return maxNanos;
+	}
+
+	@Override
+	public String toString() {
+		return "LatencySnapshot{count=%s, mean=%s, p50=%s, p99=%s, max=%s}".formatted(count, meanNanos, p50Nanos, p99Nanos, maxNanos);
+	}
+}
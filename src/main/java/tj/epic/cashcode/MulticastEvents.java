@@ -0,0 +1,89 @@
+package tj.epic.cashcode;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards device events to every registered listener.
+ */
+class MulticastEvents implements CashCodeEvents {
+	private final List<CashCodeEvents> listeners = new CopyOnWriteArrayList<>();
+
+	void add(CashCodeEvents listener) {
+		listeners.add(listener);
+	}
+
+	void remove(CashCodeEvents listener) {
+		listeners.remove(listener);
+	}
+
+	@Override
+	public void onAccept() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onAccept();
+		}
+	}
+
+	@Override
+	public void onReject() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onReject();
+		}
+	}
+
+	@Override
+	public void onEscrowPosition() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onEscrowPosition();
+		}
+	}
+
+	@Override
+	public void onStack() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onStack();
+		}
+	}
+
+	@Override
+	public void onBillStack(int value) {
+		for (CashCodeEvents listener : listeners) {
+			listener.onBillStack(value);
+		}
+	}
+
+	@Override
+	public void onReturn() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onReturn();
+		}
+	}
+
+	@Override
+	public void onBillReturned() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onBillReturned();
+		}
+	}
+
+	@Override
+	public void onDropCassetteOutOfPosition() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onDropCassetteOutOfPosition();
+		}
+	}
+
+	@Override
+	public void onCassetteInitialize() {
+		for (CashCodeEvents listener : listeners) {
+			listener.onCassetteInitialize();
+		}
+	}
+
+	@Override
+	public void onError(BillValidatorError error) {
+		for (CashCodeEvents listener : listeners) {
+			listener.onError(error);
+		}
+	}
+}
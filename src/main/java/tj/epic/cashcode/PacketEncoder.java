@@ -0,0 +1,66 @@
+package tj.epic.cashcode;
+
+/**
+ * Encodes controller commands into CCNET frames without allocating on the hot path.
+ * Frames of commands without data (ACK, POLL, NAK, ...) are encoded once up front. Frames with data are written into
+ * a buffer that is reused for every frame of the same length, so the returned array is only valid until the next
+ * {@link #encode} call. One encoder per device, not thread-safe.
+ */
+public final class PacketEncoder {
+	private final int address;
+	private final byte[][] emptyFrames = new byte[BillValidatorCommand.values().length][];
+	private final byte[][] buffers = new byte[FrameDecoder.MAX_FRAME_LENGTH + 1][];
+
+	public PacketEncoder(int address) {
+		this.address = address;
+		for (BillValidatorCommand command : BillValidatorCommand.values()) {
+			byte[] frame = new byte[FrameDecoder.MIN_FRAME_LENGTH];
+			write(frame, command.getCode(), null);
+			emptyFrames[command.ordinal()] = frame;
+		}
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	public byte[] encode(BillValidatorCommand command) {
+		return emptyFrames[command.ordinal()];
+	}
+
+	public byte[] encode(BillValidatorCommand command, int[] data) {
+		if (data == null || data.length == 0) {
+			return encode(command);
+		}
+
+		int length = data.length + FrameDecoder.MIN_FRAME_LENGTH;
+		if (length > FrameDecoder.MAX_FRAME_LENGTH) {
+			throw new IllegalArgumentException("Frame too long: %s bytes".formatted(length));
+		}
+
+		byte[] frame = buffers[length];
+		if (frame == null) {
+			frame = new byte[length];
+			buffers[length] = frame;
+		}
+		write(frame, command.getCode(), data);
+		return frame;
+	}
+
+	private void write(byte[] frame, int command, int[] data) {
+		int length = frame.length;
+		frame[0] = FrameDecoder.SYNC;
+		frame[1] = (byte) address;
+		frame[2] = (byte) length;
+		frame[3] = (byte) command;
+		if (data != null) {
+			for (int i = 0; i < data.length; i++) {
+				frame[4 + i] = (byte) data[i];
+			}
+		}
+
+		int crc = Crc16.compute(frame, 0, length - 2);
+		frame[length - 2] = (byte) crc;
+		frame[length - 1] = (byte) (crc >> 8);
+	}
+}
@@ -0,0 +1,94 @@
+package tj.epic.cashcode;
+
+/**
+ * Poll interval that follows the device: the shortest while a bill is being processed, so escrow and stacking are
+ * handled quickly, and backing off exponentially up to the longest while the device has nothing to report.
+ */
+public class PollInterval {
+	public static final long DEFAULT_MIN_MS = 20;
+	public static final long DEFAULT_MAX_MS = 400;
+	public static final int DEFAULT_IDLE_POLLS = 20;
+
+	private final long minMs;
+	private final long maxMs;
+	private final long baseMs;
+	private final int idlePolls;
+
+	private volatile long intervalMs;
+	private int idleStreak = 0;
+
+	public PollInterval() {
+		this(DEFAULT_MIN_MS, DEFAULT_MAX_MS);
+	}
+
+	public PollInterval(long minMs, long maxMs) {
+		this(minMs, maxMs, DEFAULT_IDLE_POLLS);
+	}
+
+	/**
+	 * @param idlePolls number of polls with nothing to report before the interval starts growing
+	 */
+	public PollInterval(long minMs, long maxMs, int idlePolls) {
+		if (minMs <= 0 || maxMs < minMs) {
+			throw new IllegalArgumentException("Invalid poll interval bounds: %s..%s ms".formatted(minMs, maxMs));
+		}
+		this.minMs = minMs;
+		this.maxMs = maxMs;
+		this.baseMs = Math.min(Math.max(CashCodeSM.POLL_INTERVAL_MS, minMs), maxMs);
+		this.idlePolls = idlePolls;
+		this.intervalMs = baseMs;
+	}
+
+	/**
+	 * Constant interval, as polling worked before.
+	 */
+	public static PollInterval fixed(long intervalMs) {
+		return new PollInterval(intervalMs, intervalMs);
+	}
+
+	public long getMinMs() {
+		return minMs;
+	}
+
+	public long getMaxMs() {
+		return maxMs;
+	}
+
+	/**
+	 * Time to wait before the next poll.
+	 */
+	public long getIntervalMs() {
+		return intervalMs;
+	}
+
+	/**
+	 * Adapts the interval to the status of the last POLL reply, -1 if the device did not reply.
+	 */
+	public void update(int status) {
+		switch (status) {
+			// accepting, stacking, returning, rejecting, escrow, stacked, returned
+			case 0x15, 0x17, 0x18, 0x1C, 0x80, 0x81, 0x82 -> {
+				idleStreak = 0;
+				intervalMs = minMs;
+			}
+			// idling, unit disabled, no reply
+			case 0x14, 0x19, -1 -> {
+				if (idleStreak < idlePolls) {
+					idleStreak++;
+					intervalMs = baseMs;
+				} else {
+					intervalMs = Math.min(Math.max(intervalMs, baseMs) * 2, maxMs);
+				}
+			}
+			default -> {
+				idleStreak = 0;
+				intervalMs = baseMs;
+			}
+		}
+	}
+
+	public void reset() {
+		idleStreak = 0;
+		intervalMs = baseMs;
+	}
+}
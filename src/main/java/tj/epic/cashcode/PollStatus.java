@@ -0,0 +1,126 @@
+package tj.epic.cashcode;
+
+import java.util.Arrays;
+
+/**
+ * Status byte of a POLL reply. Statuses and the failure codes of {@link #FAILURE} are looked up in tables of 256
+ * entries built once, so decoding a reply neither branches over the codes nor allocates.
+ */
+public enum PollStatus {
+	POWER_UP(0x10),
+	POWER_UP_WITH_BILL_IN_VALIDATOR(0x11),
+	POWER_UP_WITH_BILL_IN_STACKER(0x12),
+	INITIALIZE(0x13),
+	IDLING(0x14),
+	ACCEPTING(0x15),
+	STACKING(0x17),
+	RETURNING(0x18),
+	UNIT_DISABLED(0x19),
+	// bill held in escrow by HOLD
+	HOLDING(0x1A),
+	DEVICE_BUSY(0x1B),
+	// the second byte tells the reason
+	REJECTING(0x1C),
+	DROP_CASSETTE_FULL(0x41, BillValidatorError.DROP_CASSETTE_FULL),
+	DROP_CASSETTE_OUT_OF_POSITION(0x42, BillValidatorError.DROP_CASSETTE_OUT_OF_POSITION),
+	VALIDATOR_JAMMED(0x43, BillValidatorError.VALIDATOR_JAMMED),
+	DROP_CASSETTE_JAMMED(0x44, BillValidatorError.DROP_CASSETTE_JAMMED),
+	CHEATED(0x45, BillValidatorError.CHEATED),
+	PAUSE(0x46, BillValidatorError.PAUSE),
+	// the second byte tells the failure
+	FAILURE(0x47, BillValidatorError.GENERIC_FAILURE),
+	ESCROW_POSITION(0x80),
+	BILL_STACKED(0x81),
+	BILL_RETURNED(0x82),
+	// status 0x30, the device did not understand the command
+	ILLEGAL_COMMAND(0x30, BillValidatorError.ILLEGAL_COMMAND),
+	// ACK and any status CCNET does not define
+	OTHER(-1);
+
+	private static final PollStatus[] BY_CODE = new PollStatus[256];
+	private static final BillValidatorError[] FAILURES = new BillValidatorError[256];
+
+	static {
+		Arrays.fill(BY_CODE, OTHER);
+		for (PollStatus status : values()) {
+			if (status.code >= 0) {
+				BY_CODE[status.code] = status;
+			}
+		}
+
+		Arrays.fill(FAILURES, BillValidatorError.GENERIC_FAILURE);
+		FAILURES[0x50] = BillValidatorError.STACK_MOTOR_FAILURE;
+		FAILURES[0x51] = BillValidatorError.TRANSPORT_MOTOR_SPEED_FAILURE;
+		FAILURES[0x52] = BillValidatorError.TRANSPORT_MOTOR_FAILURE;
+		FAILURES[0x53] = BillValidatorError.ALIGNING_MOTOR_FAILURE;
+		FAILURES[0x54] = BillValidatorError.INITIAL_CASSETTE_STATUS_FAILURE;
+		FAILURES[0x55] = BillValidatorError.OPTIC_CANAL_FAILURE;
+		FAILURES[0x56] = BillValidatorError.MAGNETIC_CANAL_FAILURE;
+		FAILURES[0x5F] = BillValidatorError.CAPACITANCE_CANAL_FAILURE;
+	}
+
+	private final int code;
+	private final BillValidatorError error;
+
+	PollStatus(int code) {
+		this(code, BillValidatorError.NONE);
+	}
+
+	PollStatus(int code, BillValidatorError error) {
+		this.code = code;
+		this.error = error;
+	}
+
+	public static PollStatus of(int code) {
+		return BY_CODE[code & 0xFF];
+	}
+
+	/**
+	 * Error a reply reports, {@link BillValidatorError#NONE} if it reports none. A missing reply is a
+	 * {@link BillValidatorError#GENERIC_FAILURE}.
+	 */
+	public static BillValidatorError errorOf(Frame reply) {
+		if (reply == null) {
+			return BillValidatorError.GENERIC_FAILURE;
+		}
+
+		PollStatus status = BY_CODE[reply.getStatus() & 0xFF];
+		if (status == FAILURE) {
+			return reply.getDataLength() < 2 ? BillValidatorError.GENERIC_FAILURE : FAILURES[reply.getData(1) & 0xFF];
+		}
+		return status.error;
+	}
+
+	/**
+	 * Status byte, -1 for {@link #OTHER}.
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	/**
+	 * Error the status reports, {@link BillValidatorError#GENERIC_FAILURE} for any {@link #FAILURE}, see
+	 * {@link #errorOf(Frame)} for the exact one.
+	 */
+	public BillValidatorError getError() {
+		return error;
+	}
+
+	public boolean isError() {
+		return error != BillValidatorError.NONE;
+	}
+
+	/**
+	 * Power up states, the device restarted and waits for RESET.
+	 */
+	public boolean isPowerUp() {
+		return this == POWER_UP || this == POWER_UP_WITH_BILL_IN_VALIDATOR || this == POWER_UP_WITH_BILL_IN_STACKER;
+	}
+
+	/**
+	 * A bill is in escrow, waiting for STACK or RETURN.
+	 */
+	public boolean isEscrow() {
+		return this == ESCROW_POSITION || this == HOLDING;
+	}
+}
@@ -0,0 +1,21 @@
+package tj.epic.cashcode;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Handle of a polling session started with {@link CashCodeAsync#startPollingAsync(CashCodeEvents)}.
+ */
+public interface PollingHandle {
+	/**
+	 * Stops scheduling poll cycles. A cycle already waiting for its reply is finished first.
+	 * The enabled bill types are left as they are, use {@link CashCodeAsync#stopPollingAsync()} to disable acceptance.
+	 */
+	void cancel();
+
+	boolean isActive();
+
+	/**
+	 * Completes when polling ends, exceptionally if it ended because of a port error.
+	 */
+	CompletionStage<Void> completion();
+}
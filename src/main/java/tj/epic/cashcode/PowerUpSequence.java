@@ -0,0 +1,226 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPortException;
+import org.slf4j.Logger;
+import tj.epic.cashcode.exceptions.CashCodeException;
+import tj.epic.cashcode.exceptions.GeneralCashCodeException;
+import tj.epic.cashcode.exceptions.SecurityModeException;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Power up sequence as a pipeline of {@link PowerUpStep}s. Each step is sent as soon as the previous one got its
+ * expected reply. RESET, and waiting for the device to initialise after it, are skipped when the first POLL finds the
+ * device already initialised.
+ */
+final class PowerUpSequence {
+	private static final int IDLING = 0x14;
+	private static final int UNIT_DISABLED = 0x19;
+	private static final long INITIALIZE_TIMEOUT_MS = 10_000;
+	// enabled and security bill type masks, 3 bytes each
+	private static final int GET_STATUS_REPLY_LENGTH = 6;
+
+	private static final PowerUpStep FIRST_POLL = PowerUpStep.of(BillValidatorCommand.POLL)
+			.expect(PowerUpStep.Expect.NO_ERROR).ackReply().build();
+
+	static final List<PowerUpStep> STEPS = List.of(
+			FIRST_POLL,
+			PowerUpStep.of(BillValidatorCommand.RESET)
+					.expect(PowerUpStep.Expect.ACK)
+					.skipIf(Run::isInitialized).build(),
+			// power up and initializing states, the device ignores setup commands until it is done
+			PowerUpStep.of(BillValidatorCommand.POLL)
+					.expect(PowerUpStep.Expect.NO_ERROR).ackReply()
+					.repeatWhile(status -> status >= 0x10 && status <= 0x13, INITIALIZE_TIMEOUT_MS)
+					.skipIf(Run::isInitialized).build(),
+			PowerUpStep.of(BillValidatorCommand.ENABLE_BILL_TYPES)
+					.dataFrom(Run::getEnableBillTypes)
+					.expect(PowerUpStep.Expect.ACK).build(),
+			// bill type masks, not a status: the first byte is not checked for a device error
+			PowerUpStep.of(BillValidatorCommand.GET_STATUS)
+					.replyLength(GET_STATUS_REPLY_LENGTH).ackReply().build(),
+			PowerUpStep.of(BillValidatorCommand.SET_SECURITY, 0x00, 0x00, 0x00)
+					.expect(PowerUpStep.Expect.NO_ERROR)
+					.failWith(message -> new SecurityModeException("Security Mode Error")).build(),
+			PowerUpStep.of(BillValidatorCommand.IDENTIFICATION)
+					.ackReply().build(),
+			PowerUpStep.of(BillValidatorCommand.POLL)
+					.expect(PowerUpStep.Expect.NO_ERROR).ackReply().build()
+	);
+
+	private final CcnetLink link;
+	private final ScheduledExecutorService scheduler;
+	private final Consumer<BillValidatorError> errorHandler;
+	private final Logger logger;
+	private final int[] enableBillTypes;
+	private ReplyHandler firstPollHandler;
+
+	/**
+	 * @param enableBillTypes ENABLE_BILL_TYPES data: enabled bill types and bill types held in escrow, 3 bytes each
+	 */
+	PowerUpSequence(CcnetLink link, int[] enableBillTypes, ScheduledExecutorService scheduler, Consumer<BillValidatorError> errorHandler, Logger logger) {
+		this.link = link;
+		this.enableBillTypes = enableBillTypes;
+		this.scheduler = scheduler;
+		this.errorHandler = errorHandler;
+		this.logger = logger;
+	}
+
+	/**
+	 * Hands the reply to the first POLL to the handler instead of ACKing it, for a power up within a polling session:
+	 * the device may still report a bill it stacked or returned, which must not be ACKed unseen. The handler ACKs it.
+	 */
+	PowerUpSequence deliverFirstPoll(ReplyHandler handler) {
+		this.firstPollHandler = handler;
+		return this;
+	}
+
+	/**
+	 * Runs all steps. Completes exceptionally with a {@link CashCodeException} at the first step that fails.
+	 */
+	CompletableFuture<Run> run() {
+		Run run = new Run(enableBillTypes);
+		return runFrom(run, 0).thenApply(ignored -> run);
+	}
+
+	private CompletableFuture<Void> runFrom(Run run, int index) {
+		if (index == STEPS.size()) {
+			return CompletableFuture.completedFuture(null);
+		}
+
+		PowerUpStep step = STEPS.get(index);
+		if (step.skipIf.test(run)) {
+			logger.debug("Power up: skipping {}", step);
+			return runFrom(run, index + 1);
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(step.repeatTimeoutMs);
+		return execute(run, step, deadline).thenCompose(ignored -> runFrom(run, index + 1));
+	}
+
+	private CompletableFuture<Void> execute(Run run, PowerUpStep step, long deadline) {
+		return link.request(step.command, step.data.apply(run))
+				.handle((reply, throwable) -> check(run, step, reply, throwable))
+				.thenCompose(status -> {
+					if (!step.repeatWhile.test(status)) {
+						return CompletableFuture.completedFuture(null);
+					}
+					if (System.nanoTime() - deadline >= 0) {
+						throw new CompletionException(step.failure.apply("Power Up failed, device still initializing"));
+					}
+
+					Executor delayed = CompletableFuture.delayedExecutor(CashCodeSM.POLL_INTERVAL_MS, TimeUnit.MILLISECONDS, scheduler);
+					return CompletableFuture.supplyAsync(() -> null, delayed).thenCompose(ignored -> execute(run, step, deadline));
+				});
+	}
+
+	/**
+	 * Checks the reply against the step and ACKs or NAKs it. Returns the reply status.
+	 */
+	private int check(Run run, PowerUpStep step, Frame reply, Throwable throwable) {
+		try {
+			if (throwable != null) {
+				Throwable cause = CashCodeSM.unwrap(throwable);
+				if (cause instanceof SerialPortException) {
+					logger.error("Failed powering up a device", cause);
+					throw new GeneralCashCodeException("CashCode error: " + cause.getMessage());
+				}
+				if (!(cause instanceof TimeoutException)) {
+					throw new GeneralCashCodeException("CashCode error: " + cause.getMessage());
+				}
+				logger.warn(cause.getMessage());
+			}
+
+			BillValidatorError error = switch (step.expect) {
+				case ANY -> step.replyLength == 0 ? BillValidatorError.NONE : lengthError(reply, step.replyLength);
+				case ACK -> reply != null && reply.getStatus() == 0x00 ? BillValidatorError.NONE : nakError(reply);
+				case NO_ERROR -> PollStatus.errorOf(reply);
+			};
+
+			if (error != BillValidatorError.NONE) {
+				errorHandler.accept(error);
+				if (reply != null) {
+					link.send(BillValidatorCommand.NAK, CashCodeSM.NO_DATA);
+				}
+				throw step.failure.apply("Power Up failed");
+			}
+
+			if (reply != null && step == FIRST_POLL && firstPollHandler != null) {
+				firstPollHandler.accept(reply);
+			} else if (reply != null && step.ackReply) {
+				link.send(BillValidatorCommand.ACK, CashCodeSM.NO_DATA);
+			}
+
+			if (run.firstStatus < 0 && reply != null && step.command == BillValidatorCommand.POLL) {
+				run.firstStatus = reply.getStatus();
+			}
+			if (reply != null && step.command == BillValidatorCommand.IDENTIFICATION) {
+				run.identification = reply;
+			}
+			return reply != null ? reply.getStatus() : -1;
+		} catch (SerialPortException e) {
+			logger.error("Failed powering up a device", e);
+			throw new CompletionException(new GeneralCashCodeException("CashCode error: " + e.getMessage()));
+		} catch (CashCodeException e) {
+			throw new CompletionException(e);
+		}
+	}
+
+	/**
+	 * Error of a command that was not ACKed: the device error the reply reports, or an illegal command.
+	 */
+	private static BillValidatorError nakError(Frame reply) {
+		BillValidatorError error = PollStatus.errorOf(reply);
+		return error != BillValidatorError.NONE ? error : BillValidatorError.ILLEGAL_COMMAND;
+	}
+
+	/**
+	 * Error of a reply too short for the data it should carry: the error it reports instead, if any.
+	 */
+	private static BillValidatorError lengthError(Frame reply, int replyLength) {
+		if (reply == null) {
+			return BillValidatorError.GENERIC_FAILURE;
+		}
+		return reply.getDataLength() >= replyLength ? BillValidatorError.NONE : nakError(reply);
+	}
+
+	@FunctionalInterface
+	interface ReplyHandler {
+		void accept(Frame reply) throws SerialPortException;
+	}
+
+	/**
+	 * What the sequence learned about the device.
+	 */
+	static final class Run {
+		private final int[] enableBillTypes;
+		private int firstStatus = -1;
+		private Frame identification;
+
+		private Run(int[] enableBillTypes) {
+			this.enableBillTypes = enableBillTypes;
+		}
+
+		int[] getEnableBillTypes() {
+			return enableBillTypes;
+		}
+
+		/**
+		 * The device answered the first POLL as idling or disabled, so it is past its power up and initialization.
+		 */
+		boolean isInitialized() {
+			return firstStatus == IDLING || firstStatus == UNIT_DISABLED;
+		}
+
+		Frame getIdentification() {
+			return identification;
+		}
+	}
+}
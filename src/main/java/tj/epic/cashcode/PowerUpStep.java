@@ -0,0 +1,123 @@
+package tj.epic.cashcode;
+
+import tj.epic.cashcode.exceptions.CashCodeException;
+import tj.epic.cashcode.exceptions.PowerUpException;
+
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * One step of the power up sequence: the command to send, the reply it expects and what to do with the reply. Steps are
+ * immutable, the sequence shares them between runs.
+ */
+final class PowerUpStep {
+	enum Expect {
+		// any reply will do
+		ANY,
+		// the device must ACK the command
+		ACK,
+		// the reply must not report a device error
+		NO_ERROR,
+	}
+
+	final BillValidatorCommand command;
+	final Function<PowerUpSequence.Run, int[]> data;
+	final Expect expect;
+	final boolean ackReply;
+	final int replyLength;
+	final Predicate<PowerUpSequence.Run> skipIf;
+	final IntPredicate repeatWhile;
+	final long repeatTimeoutMs;
+	final Function<String, CashCodeException> failure;
+
+	private PowerUpStep(Builder builder) {
+		this.command = builder.command;
+		this.data = builder.data;
+		this.expect = builder.expect;
+		this.ackReply = builder.ackReply;
+		this.replyLength = builder.replyLength;
+		this.skipIf = builder.skipIf;
+		this.repeatWhile = builder.repeatWhile;
+		this.repeatTimeoutMs = builder.repeatTimeoutMs;
+		this.failure = builder.failure;
+	}
+
+	static Builder of(BillValidatorCommand command, int... data) {
+		return new Builder(command, data);
+	}
+
+	static final class Builder {
+		private final BillValidatorCommand command;
+		private Function<PowerUpSequence.Run, int[]> data;
+		private Expect expect = Expect.ANY;
+		private boolean ackReply = false;
+		private int replyLength = 0;
+		private Predicate<PowerUpSequence.Run> skipIf = run -> false;
+		private IntPredicate repeatWhile = status -> false;
+		private long repeatTimeoutMs = 0;
+		private Function<String, CashCodeException> failure = PowerUpException::new;
+
+		private Builder(BillValidatorCommand command, int[] data) {
+			this.command = command;
+			this.data = run -> data;
+		}
+
+		/**
+		 * Takes the command data from the run, for data that depends on the device settings.
+		 */
+		Builder dataFrom(Function<PowerUpSequence.Run, int[]> data) {
+			this.data = data;
+			return this;
+		}
+
+		Builder expect(Expect expect) {
+			this.expect = expect;
+			return this;
+		}
+
+		/**
+		 * ACK the reply, for commands answered with data rather than with ACK.
+		 */
+		Builder ackReply() {
+			this.ackReply = true;
+			return this;
+		}
+
+		/**
+		 * The reply must hold at least the given number of bytes, for replies carrying data rather than a status.
+		 */
+		Builder replyLength(int replyLength) {
+			this.replyLength = replyLength;
+			return this;
+		}
+
+		Builder skipIf(Predicate<PowerUpSequence.Run> skipIf) {
+			this.skipIf = skipIf;
+			return this;
+		}
+
+		/**
+		 * Sends the command again, a poll interval apart, while the reply status matches, for up to the given time.
+		 */
+		Builder repeatWhile(IntPredicate repeatWhile, long timeoutMs) {
+			this.repeatWhile = repeatWhile;
+			this.repeatTimeoutMs = timeoutMs;
+			return this;
+		}
+
+		Builder failWith(Function<String, CashCodeException> failure) {
+			this.failure = failure;
+			return this;
+		}
+
+		PowerUpStep build() {
+			return new PowerUpStep(this);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return command.name();
+	}
+}
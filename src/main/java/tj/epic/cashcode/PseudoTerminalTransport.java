@@ -0,0 +1,47 @@
+package tj.epic.cashcode;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Transport over a terminal device opened by path, e.g. one end of a pseudo terminal pair created by socat, or a tty
+ * configured with stty. Line settings are left as they are.
+ */
+public class PseudoTerminalTransport extends StreamTransport {
+	private final String path;
+	private FileInputStream input;
+	private FileOutputStream output;
+
+	public PseudoTerminalTransport(String path) {
+		super(path);
+		this.path = path;
+	}
+
+	@Override
+	Streams connect() throws IOException {
+		input = new FileInputStream(path);
+		try {
+			output = new FileOutputStream(path);
+		} catch (IOException e) {
+			input.close();
+			throw e;
+		}
+		return new Streams(input, output);
+	}
+
+	@Override
+	void disconnect() throws IOException {
+		try {
+			if (input != null) {
+				input.close();
+			}
+		} finally {
+			if (output != null) {
+				output.close();
+			}
+			input = null;
+			output = null;
+		}
+	}
+}
@@ -0,0 +1,8 @@
+package tj.epic.cashcode;
+
+public enum ReceiveMode {
+	// the requesting thread reads the port until the reply frame is complete
+	BLOCKING,
+	// jssc RXCHAR events feed the decoder, the requester waits on the reply future
+	EVENT_DRIVEN,
+}
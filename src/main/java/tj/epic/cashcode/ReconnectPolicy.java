@@ -0,0 +1,63 @@
+package tj.epic.cashcode;
+
+/**
+ * Backoff of supervised polling between attempts to reopen a lost connection, see
+ * {@link CashCodeSM#startSupervisedPolling}. The delay doubles with every failed attempt, up to the longest.
+ */
+public class ReconnectPolicy {
+	public static final long DEFAULT_INITIAL_DELAY_MS = 500;
+	public static final long DEFAULT_MAX_DELAY_MS = 30_000;
+
+	private final long initialDelayMs;
+	private final long maxDelayMs;
+	private final int maxAttempts;
+
+	/**
+	 * Retries forever, from 500 ms up to 30 s apart.
+	 */
+	public ReconnectPolicy() {
+		this(DEFAULT_INITIAL_DELAY_MS, DEFAULT_MAX_DELAY_MS, 0);
+	}
+
+	/**
+	 * @param maxAttempts attempts before polling fails for good, 0 to retry forever
+	 */
+	public ReconnectPolicy(long initialDelayMs, long maxDelayMs, int maxAttempts) {
+		if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs || maxAttempts < 0) {
+			throw new IllegalArgumentException("Invalid reconnect policy: %s..%s ms, %s attempts".formatted(initialDelayMs, maxDelayMs, maxAttempts));
+		}
+		this.initialDelayMs = initialDelayMs;
+		this.maxDelayMs = maxDelayMs;
+		this.maxAttempts = maxAttempts;
+	}
+
+	public long getInitialDelayMs() {
+		return initialDelayMs;
+	}
+
+	public long getMaxDelayMs() {
+		return maxDelayMs;
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Time to wait before the given attempt, counted from 1.
+	 */
+	public long getDelayMs(int attempt) {
+		int doublings = Math.min(attempt - 1, 62);
+		if (initialDelayMs > maxDelayMs >> doublings) {
+			return maxDelayMs;
+		}
+		return initialDelayMs << doublings;
+	}
+
+	/**
+	 * Whether another attempt follows the given failed one.
+	 */
+	public boolean canRetry(int attempt) {
+		return maxAttempts == 0 || attempt < maxAttempts;
+	}
+}
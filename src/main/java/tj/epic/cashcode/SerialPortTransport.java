@@ -0,0 +1,77 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortException;
+
+/**
+ * Transport over a jssc serial port.
+ */
+public class SerialPortTransport implements Transport {
+	private final SerialPort serialPort;
+
+	public SerialPortTransport(SerialPort serialPort) {
+		this.serialPort = serialPort;
+	}
+
+	public SerialPortTransport(String portName) {
+		this(new SerialPort(portName));
+	}
+
+	public SerialPort getSerialPort() {
+		return serialPort;
+	}
+
+	@Override
+	public String getName() {
+		return serialPort.getPortName();
+	}
+
+	@Override
+	public void open(int baudRate, int dataBits, int stopBits, int parity) throws SerialPortException {
+		serialPort.openPort();
+		serialPort.setParams(baudRate, dataBits, stopBits, parity);
+	}
+
+	@Override
+	public boolean isOpened() {
+		return serialPort.isOpened();
+	}
+
+	@Override
+	public void close() throws SerialPortException {
+		serialPort.closePort();
+	}
+
+	@Override
+	public void write(byte[] bytes) throws SerialPortException {
+		serialPort.writeBytes(bytes);
+	}
+
+	@Override
+	public int[] read() throws SerialPortException {
+		return serialPort.readIntArray();
+	}
+
+	@Override
+	public void setReceiver(Receiver receiver) throws SerialPortException {
+		if (receiver == null) {
+			serialPort.removeEventListener();
+			return;
+		}
+
+		serialPort.addEventListener(event -> onSerialEvent(event, receiver), SerialPort.MASK_RXCHAR);
+	}
+
+	private void onSerialEvent(SerialPortEvent event, Receiver receiver) {
+		if (!event.isRXCHAR() || event.getEventValue() <= 0) {
+			return;
+		}
+
+		try {
+			receiver.onData(serialPort.readIntArray(event.getEventValue()));
+		} catch (SerialPortException e) {
+			receiver.onError(e);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package tj.epic.cashcode;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * Transport over a TCP connection, e.g. to a serial device server or ser2net. Line settings are those of the server.
+ */
+public class SocketTransport extends StreamTransport {
+	private static final int DEFAULT_CONNECT_TIMEOUT_MS = 3000;
+
+	private final String host;
+	private final int port;
+	private int connectTimeoutMs = DEFAULT_CONNECT_TIMEOUT_MS;
+	private Socket socket;
+
+	public SocketTransport(String host, int port) {
+		super(host + ":" + port);
+		this.host = host;
+		this.port = port;
+	}
+
+	public void setConnectTimeoutMs(int connectTimeoutMs) {
+		this.connectTimeoutMs = connectTimeoutMs;
+	}
+
+	@Override
+	Streams connect() throws IOException {
+		socket = new Socket();
+		socket.setTcpNoDelay(true);
+		socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+		return new Streams(socket.getInputStream(), socket.getOutputStream());
+	}
+
+	@Override
+	void disconnect() throws IOException {
+		if (socket != null) {
+			socket.close();
+			socket = null;
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPortException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Transport over a pair of blocking streams. A daemon reader thread runs while the transport is open; it delivers
+ * received bytes to the receiver if one is set, otherwise keeps them until {@link #read()}. Closing the transport stops
+ * the reader, so reopening it does not leave threads behind.
+ */
+abstract class StreamTransport implements Transport {
+	private static final int READ_BUFFER_SIZE = 256;
+	private static final long READER_STOP_TIMEOUT_MS = 1000;
+
+	private final Logger logger = LoggerFactory.getLogger(StreamTransport.class);
+	private final String name;
+	private volatile InputStream input;
+	private volatile OutputStream output;
+	private volatile Thread reader;
+	private volatile Receiver receiver;
+
+	// bytes received while there is no receiver
+	private final Object bufferLock = new Object();
+	private int[] buffer = new int[READ_BUFFER_SIZE];
+	private int buffered = 0;
+	private volatile SerialPortException readFailure;
+
+	StreamTransport(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Opens the underlying connection and returns its streams.
+	 */
+	abstract Streams connect() throws IOException;
+
+	abstract void disconnect() throws IOException;
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public synchronized void open(int baudRate, int dataBits, int stopBits, int parity) throws SerialPortException {
+		readFailure = null;
+		try {
+			Streams streams = connect();
+			input = streams.input();
+			output = streams.output();
+		} catch (IOException e) {
+			throw failure("open", e);
+		}
+
+		startReader();
+	}
+
+	@Override
+	public boolean isOpened() {
+		return output != null;
+	}
+
+	@Override
+	public synchronized void close() throws SerialPortException {
+		Thread thread = reader;
+		input = null;
+		output = null;
+		reader = null;
+		synchronized (bufferLock) {
+			buffered = 0;
+		}
+		try {
+			disconnect();
+		} catch (IOException e) {
+			throw failure("close", e);
+		} finally {
+			stopReader(thread);
+		}
+	}
+
+	@Override
+	public void write(byte[] bytes) throws SerialPortException {
+		OutputStream stream = output;
+		if (stream == null) {
+			throw new SerialPortException(name, "write", SerialPortException.TYPE_PORT_NOT_OPENED);
+		}
+
+		try {
+			stream.write(bytes);
+			stream.flush();
+		} catch (IOException e) {
+			throw failure("write", e);
+		}
+	}
+
+	@Override
+	public int[] read() throws SerialPortException {
+		if (input == null) {
+			throw new SerialPortException(name, "read", SerialPortException.TYPE_PORT_NOT_OPENED);
+		}
+		if (readFailure != null) {
+			throw readFailure;
+		}
+
+		synchronized (bufferLock) {
+			if (buffered == 0) {
+				return null;
+			}
+
+			int[] result = Arrays.copyOf(buffer, buffered);
+			buffered = 0;
+			return result;
+		}
+	}
+
+	@Override
+	public void setReceiver(Receiver receiver) {
+		this.receiver = receiver;
+	}
+
+	private void startReader() {
+		Thread thread = new Thread(this::readLoop, "cashcode-reader-" + name);
+		thread.setDaemon(true);
+		reader = thread;
+		thread.start();
+	}
+
+	/**
+	 * Waits for the reader to end, its blocking read ended by closing the stream. A read that ignores both the close and
+	 * the interrupt is left to the daemon thread after the timeout.
+	 */
+	private void stopReader(Thread thread) {
+		if (thread == null || thread == Thread.currentThread()) {
+			return;
+		}
+
+		thread.interrupt();
+		try {
+			thread.join(READER_STOP_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (thread.isAlive()) {
+			logger.warn("Reader of {} still running {} ms after close", name, READER_STOP_TIMEOUT_MS);
+		}
+	}
+
+	private void readLoop() {
+		InputStream stream = input;
+		byte[] chunk = new byte[READ_BUFFER_SIZE];
+		while (reader == Thread.currentThread()) {
+			try {
+				int count = stream.read(chunk);
+				if (count < 0) {
+					throw new IOException("End of stream");
+				}
+
+				if (count > 0) {
+					deliver(toInts(chunk, count));
+				}
+			} catch (IOException e) {
+				if (reader != Thread.currentThread()) {
+					return;
+				}
+
+				SerialPortException failure = failure("read", e);
+				Receiver current = receiver;
+				if (current != null) {
+					current.onError(failure);
+				} else {
+					readFailure = failure;
+				}
+				return;
+			}
+		}
+	}
+
+	private void deliver(int[] data) {
+		Receiver current = receiver;
+		if (current != null) {
+			current.onData(data);
+			return;
+		}
+
+		synchronized (bufferLock) {
+			if (buffered + data.length > buffer.length) {
+				buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, buffered + data.length));
+			}
+			System.arraycopy(data, 0, buffer, buffered, data.length);
+			buffered += data.length;
+		}
+	}
+
+	private SerialPortException failure(String method, IOException e) {
+		return new SerialPortException(name, method, String.valueOf(e.getMessage()));
+	}
+
+	private static int[] toInts(byte[] bytes, int count) {
+		int[] result = new int[Math.max(count, 0)];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = bytes[i] & 0xFF;
+		}
+		return result;
+	}
+
+	record Streams(InputStream input, OutputStream output) {
+	}
+}
@@ -0,0 +1,42 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPortException;
+
+/**
+ * Byte stream a {@link CcnetBus} talks over: a serial port, a TCP socket, a pseudo terminal or an in-memory line.
+ * Failures are reported as {@link SerialPortException} whatever the transport, so that the bus handles them alike.
+ */
+public interface Transport {
+	/**
+	 * Name of the port, host or device, for logs and errors.
+	 */
+	String getName();
+
+	/**
+	 * Opens the transport. Line settings only apply to transports that drive a serial line themselves.
+	 */
+	void open(int baudRate, int dataBits, int stopBits, int parity) throws SerialPortException;
+
+	boolean isOpened();
+
+	void close() throws SerialPortException;
+
+	void write(byte[] bytes) throws SerialPortException;
+
+	/**
+	 * Bytes received so far, without waiting. Returns an empty array or null if there are none.
+	 */
+	int[] read() throws SerialPortException;
+
+	/**
+	 * Delivers received bytes to the receiver as they arrive, instead of waiting for {@link #read()}. A null receiver
+	 * stops the delivery.
+	 */
+	void setReceiver(Receiver receiver) throws SerialPortException;
+
+	interface Receiver {
+		void onData(int[] data);
+
+		void onError(SerialPortException e);
+	}
+}
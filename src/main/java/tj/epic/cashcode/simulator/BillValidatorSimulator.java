@@ -0,0 +1,529 @@
+package tj.epic.cashcode.simulator;
+
+import tj.epic.cashcode.BillValidatorCommand;
+import tj.epic.cashcode.Crc16;
+import tj.epic.cashcode.Frame;
+import tj.epic.cashcode.FrameDecoder;
+import tj.epic.cashcode.InMemoryTransport;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * CCNET bill validator simulator for tests without hardware. It answers the controller commands over an
+ * {@link InMemoryTransport} after a response delay, goes through power up and initialization after RESET, and plays
+ * scripted bill insert, return and reject sequences and faults such as a jam through its POLL replies.
+ * <p>
+ * Scripted states are reported for a step duration each, bill stacked and bill returned until the controller ACKs
+ * them, escrow until the controller sends STACK or RETURN.
+ */
+public class BillValidatorSimulator {
+	// POLL statuses
+	public static final int POWER_UP = 0x10;
+	public static final int INITIALIZE = 0x13;
+	public static final int IDLING = 0x14;
+	public static final int ACCEPTING = 0x15;
+	public static final int STACKING = 0x17;
+	public static final int RETURNING = 0x18;
+	public static final int UNIT_DISABLED = 0x19;
+	public static final int HOLDING = 0x1A;
+	public static final int REJECTING = 0x1C;
+	public static final int DROP_CASSETTE_OUT_OF_POSITION = 0x42;
+	public static final int VALIDATOR_JAMMED = 0x43;
+	public static final int DROP_CASSETTE_JAMMED = 0x44;
+	public static final int ESCROW_POSITION = 0x80;
+	public static final int BILL_STACKED = 0x81;
+	public static final int BILL_RETURNED = 0x82;
+
+	private static final int ACK = 0x00;
+	private static final int ILLEGAL_COMMAND = 0x30;
+	private static final int DENOMINATION_DISABLED = 0x66;
+	private static final int BILL_TYPES = 24;
+
+	private final int address;
+	private final FrameDecoder decoder = new FrameDecoder(this::onFrame);
+	private final Consumer<byte[]> line = this::receive;
+	private final Deque<Step> script = new ArrayDeque<>();
+	private final int[] billTable = new int[BILL_TYPES * 5];
+	private final AtomicLong commands = new AtomicLong();
+	private final AtomicLongArray commandCounts = new AtomicLongArray(256);
+
+	private InMemoryTransport transport;
+	private ScheduledExecutorService scheduler;
+	private long responseDelayMs = 5;
+	private long initializeMs = 500;
+	private long stepDurationMs = 100;
+	private String partNumber = "SM-SIMULATOR";
+	private String serialNumber = "000000000001";
+	private long assetNumber = 0;
+
+	private int status = POWER_UP;
+	private long initializedAt;
+	private int enabledBills = 0;
+	private int escrowBills = 0;
+	private int securityBills = 0;
+	private int[] fault;
+	// ACKs to ignore, as if lost on the line
+	private int lostAcks;
+	// replies to leave out or to send with a bad CRC, as if damaged on the line
+	private int lostReplies;
+	private int corruptedReplies;
+	// repeated when the controller NAKs a reply
+	private int[] lastReply;
+
+	// scripted step reported last and when it was first reported
+	private Step reported;
+	private long reportedAt;
+	// the bill in escrow is held after HOLD, reported as holding until STACK or RETURN
+	private boolean holding = false;
+
+	public BillValidatorSimulator() {
+		this(0x03);
+	}
+
+	public BillValidatorSimulator(int address) {
+		this.address = address;
+		setBill(0, 1, "TJK", 0);
+		setBill(1, 3, "TJK", 0);
+		setBill(2, 5, "TJK", 0);
+		setBill(3, 1, "TJK", 1);
+		setBill(4, 2, "TJK", 1);
+		setBill(5, 5, "TJK", 1);
+		setBill(6, 1, "TJK", 2);
+		setBill(7, 2, "TJK", 2);
+		setBill(8, 5, "TJK", 2);
+	}
+
+	/**
+	 * Connects the simulator to the line. Several simulators at different addresses may share one line.
+	 */
+	public void connect(InMemoryTransport transport) {
+		this.transport = transport;
+		transport.connect(line);
+	}
+
+	public void disconnect() {
+		if (transport != null) {
+			transport.disconnect(line);
+			transport = null;
+		}
+	}
+
+	public int getAddress() {
+		return address;
+	}
+
+	/**
+	 * Scheduler for delayed replies and timed states. A shared daemon scheduler is used if none is set.
+	 */
+	public void setScheduler(ScheduledExecutorService scheduler) {
+		this.scheduler = scheduler;
+	}
+
+	/**
+	 * Time between a command and its reply, 0 to reply from the writing thread.
+	 */
+	public void setResponseDelayMs(long responseDelayMs) {
+		this.responseDelayMs = responseDelayMs;
+	}
+
+	/**
+	 * How long the device initializes after RESET.
+	 */
+	public void setInitializeMs(long initializeMs) {
+		this.initializeMs = initializeMs;
+	}
+
+	/**
+	 * How long each timed state of a scripted sequence (accepting, stacking, returning, rejecting) is reported.
+	 */
+	public void setStepDurationMs(long stepDurationMs) {
+		this.stepDurationMs = stepDurationMs;
+	}
+
+	public void setIdentification(String partNumber, String serialNumber) {
+		setIdentification(partNumber, serialNumber, 0);
+	}
+
+	/**
+	 * @param assetNumber 7 byte asset number
+	 */
+	public void setIdentification(String partNumber, String serialNumber, long assetNumber) {
+		this.partNumber = partNumber;
+		this.serialNumber = serialNumber;
+		this.assetNumber = assetNumber;
+	}
+
+	/**
+	 * Sets a bill table entry: the bill is worth digit * 10^exponent of the country currency.
+	 */
+	public synchronized void setBill(int billType, int digit, String country, int exponent) {
+		int offset = billType * 5;
+		billTable[offset] = digit;
+		byte[] code = country.getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < 3; i++) {
+			billTable[offset + 1 + i] = i < code.length ? code[i] : ' ';
+		}
+		billTable[offset + 4] = exponent < 0 ? 0x80 | -exponent : exponent;
+	}
+
+	/**
+	 * Bill accepted and stacked, held in escrow first if the controller enabled escrow for its type. Bills of a type the
+	 * controller did not enable are rejected.
+	 */
+	public synchronized void insertBill(int billType) {
+		script.add(Step.timed(ACCEPTING));
+		script.add(Step.escrow(billType));
+	}
+
+	/**
+	 * Bill accepted and then given back to the customer.
+	 */
+	public synchronized void returnBill(int billType) {
+		script.add(Step.timed(ACCEPTING));
+		giveBack(script, billType);
+	}
+
+	/**
+	 * Bill rejected, e.g. with reason 0x60 for insertion error or 0x66 for a disabled bill type.
+	 */
+	public synchronized void rejectBill(int reason) {
+		script.add(Step.timed(ACCEPTING));
+		script.add(Step.timed(REJECTING, reason));
+	}
+
+	/**
+	 * Adds a state reported for the step duration, for sequences not covered by the other methods.
+	 */
+	public synchronized void script(int... reply) {
+		script.add(Step.timed(reply));
+	}
+
+	/**
+	 * Bill jammed in the validator, reported until {@link #clearFault()}.
+	 */
+	public void jam() {
+		fault(VALIDATOR_JAMMED);
+	}
+
+	public void jamCassette() {
+		fault(DROP_CASSETTE_JAMMED);
+	}
+
+	public void removeCassette() {
+		fault(DROP_CASSETTE_OUT_OF_POSITION);
+	}
+
+	/**
+	 * Reports the given status to every POLL until {@link #clearFault()}, e.g. 0x47 0x50 for a stack motor failure.
+	 */
+	public synchronized void fault(int... reply) {
+		this.fault = reply.clone();
+	}
+
+	public synchronized void clearFault() {
+		this.fault = null;
+	}
+
+	/**
+	 * Ignores the next ACKs as if they were lost on the line, so a bill stacked or returned is reported again.
+	 */
+	public synchronized void loseAcks(int count) {
+		this.lostAcks = count;
+	}
+
+	/**
+	 * Leaves out the next replies, as if they were lost on the line.
+	 */
+	public synchronized void loseReplies(int count) {
+		this.lostReplies = count;
+	}
+
+	/**
+	 * Sends the next replies with a bad CRC. A reply the controller NAKs is sent again, intact unless it is one of
+	 * them too.
+	 */
+	public synchronized void corruptReplies(int count) {
+		this.corruptedReplies = count;
+	}
+
+	public synchronized boolean isScriptDone() {
+		return script.isEmpty();
+	}
+
+	public synchronized int getStatus() {
+		return currentStatus();
+	}
+
+	/**
+	 * Bill types enabled by the controller, bit n standing for bill type n.
+	 */
+	public synchronized int getEnabledBillTypes() {
+		return enabledBills;
+	}
+
+	public synchronized int getEscrowBillTypes() {
+		return escrowBills;
+	}
+
+	/**
+	 * Commands received so far, ACK and NAK included.
+	 */
+	public long getCommandCount() {
+		return commands.get();
+	}
+
+	public long getCommandCount(BillValidatorCommand command) {
+		return commandCounts.get(command.getCode() & 0xFF);
+	}
+
+	private synchronized void receive(byte[] bytes) {
+		decoder.feed(bytes, 0, bytes.length);
+	}
+
+	private void onFrame(Frame frame) {
+		if (frame.getAddress() != address || frame.getDataLength() == 0) {
+			return;
+		}
+		commands.incrementAndGet();
+
+		int code = frame.getData(0);
+		commandCounts.incrementAndGet(code & 0xFF);
+		if (code == BillValidatorCommand.ACK.getCode()) {
+			onAck();
+			return;
+		}
+		if (code == BillValidatorCommand.NAK.getCode()) {
+			if (lastReply != null) {
+				send(lastReply.clone());
+			}
+			return;
+		}
+
+		if (code == BillValidatorCommand.POLL.getCode()) {
+			reply(poll());
+		} else if (code == BillValidatorCommand.RESET.getCode()) {
+			status = INITIALIZE;
+			initializedAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initializeMs);
+			reported = null;
+			holding = false;
+			reply(ACK);
+		} else if (code == BillValidatorCommand.GET_STATUS.getCode()) {
+			reply(enabledBills >> 16 & 0xFF, enabledBills >> 8 & 0xFF, enabledBills & 0xFF,
+					securityBills >> 16 & 0xFF, securityBills >> 8 & 0xFF, securityBills & 0xFF);
+		} else if (code == BillValidatorCommand.SET_SECURITY.getCode()) {
+			securityBills = mask(frame, 1);
+			reply(ACK);
+		} else if (code == BillValidatorCommand.ENABLE_BILL_TYPES.getCode()) {
+			enabledBills = mask(frame, 1);
+			escrowBills = mask(frame, 4);
+			if (status == IDLING || status == UNIT_DISABLED) {
+				status = enabledBills != 0 ? IDLING : UNIT_DISABLED;
+			}
+			reply(ACK);
+		} else if (code == BillValidatorCommand.STACK.getCode() || code == BillValidatorCommand.RETURN.getCode()) {
+			Step head = script.peek();
+			if (head == null || head.status != ESCROW_POSITION) {
+				reply(ILLEGAL_COMMAND);
+				return;
+			}
+			script.poll();
+			reported = null;
+			holding = false;
+			Deque<Step> decided = new ArrayDeque<>();
+			if (code == BillValidatorCommand.STACK.getCode()) {
+				stack(decided, head.billType);
+			} else {
+				giveBack(decided, head.billType);
+			}
+			decided.descendingIterator().forEachRemaining(script::addFirst);
+			reply(ACK);
+		} else if (code == BillValidatorCommand.HOLD.getCode()) {
+			Step head = script.peek();
+			if (head == null || head.status != ESCROW_POSITION) {
+				reply(ILLEGAL_COMMAND);
+				return;
+			}
+			holding = true;
+			reply(ACK);
+		} else if (code == BillValidatorCommand.IDENTIFICATION.getCode()) {
+			int[] identification = new int[34];
+			ascii(identification, 0, partNumber, 15);
+			ascii(identification, 15, serialNumber, 12);
+			for (int i = 0; i < 7; i++) {
+				identification[27 + i] = (int) (assetNumber >> (6 - i) * 8) & 0xFF;
+			}
+			reply(identification);
+		} else if (code == BillValidatorCommand.GET_BILL_TABLE.getCode()) {
+			reply(billTable.clone());
+		} else {
+			reply(ILLEGAL_COMMAND);
+		}
+	}
+
+	private int[] poll() {
+		if (fault != null) {
+			return fault;
+		}
+
+		int current = currentStatus();
+		if (current != IDLING || script.isEmpty()) {
+			return new int[]{current};
+		}
+
+		Step head = script.peek();
+		if (head == reported && head.hold == Hold.TIMED && System.nanoTime() - reportedAt >= TimeUnit.MILLISECONDS.toNanos(stepDurationMs)) {
+			script.poll();
+			head = script.peek();
+			if (head == null) {
+				reported = null;
+				return new int[]{IDLING};
+			}
+		}
+
+		// a bill type that is not enabled is rejected once recognized
+		if (head.hold == Hold.UNTIL_DECISION && (enabledBills & (1 << head.billType)) == 0) {
+			script.poll();
+			script.addFirst(Step.timed(REJECTING, DENOMINATION_DISABLED));
+			head = script.peek();
+		}
+
+		// without escrow for the bill type the bill goes straight to the cassette
+		if (head.hold == Hold.UNTIL_DECISION && (escrowBills & (1 << head.billType)) == 0) {
+			script.poll();
+			Deque<Step> stacked = new ArrayDeque<>();
+			stack(stacked, head.billType);
+			stacked.descendingIterator().forEachRemaining(script::addFirst);
+			head = script.peek();
+		}
+
+		if (head != reported) {
+			reported = head;
+			reportedAt = System.nanoTime();
+		}
+		return holding ? new int[]{HOLDING} : head.reply;
+	}
+
+	private void onAck() {
+		if (lostAcks > 0) {
+			lostAcks--;
+			return;
+		}
+		Step head = script.peek();
+		if (head != null && head == reported && head.hold == Hold.UNTIL_ACK) {
+			script.poll();
+			reported = null;
+		}
+	}
+
+	private int currentStatus() {
+		if (status == INITIALIZE && System.nanoTime() - initializedAt >= 0) {
+			status = enabledBills != 0 ? IDLING : UNIT_DISABLED;
+		}
+		return status;
+	}
+
+	private void reply(int... data) {
+		byte[] frame = new byte[data.length + 5];
+		frame[0] = FrameDecoder.SYNC;
+		frame[1] = (byte) address;
+		frame[2] = (byte) frame.length;
+		for (int i = 0; i < data.length; i++) {
+			frame[3 + i] = (byte) data[i];
+		}
+		int crc = Crc16.compute(frame, 0, frame.length - 2);
+		frame[frame.length - 2] = (byte) crc;
+		frame[frame.length - 1] = (byte) (crc >> 8);
+
+		int[] bytes = new int[frame.length];
+		for (int i = 0; i < frame.length; i++) {
+			bytes[i] = frame[i] & 0xFF;
+		}
+		lastReply = bytes.clone();
+		send(bytes);
+	}
+
+	private void send(int[] bytes) {
+		if (lostReplies > 0) {
+			lostReplies--;
+			return;
+		}
+		if (corruptedReplies > 0) {
+			corruptedReplies--;
+			bytes[bytes.length - 1] ^= 0xFF;
+		}
+
+		InMemoryTransport target = transport;
+		if (target == null) {
+			return;
+		}
+		if (responseDelayMs <= 0) {
+			target.deliver(bytes);
+		} else {
+			getScheduler().schedule(() -> target.deliver(bytes), responseDelayMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private ScheduledExecutorService getScheduler() {
+		return scheduler != null ? scheduler : DefaultScheduler.INSTANCE;
+	}
+
+	private static void stack(Deque<Step> steps, int billType) {
+		steps.add(Step.timed(STACKING));
+		steps.add(Step.untilAck(BILL_STACKED, billType));
+	}
+
+	private static void giveBack(Deque<Step> steps, int billType) {
+		steps.add(Step.timed(RETURNING));
+		steps.add(Step.untilAck(BILL_RETURNED, billType));
+	}
+
+	private static int mask(Frame frame, int offset) {
+		if (frame.getDataLength() < offset + 3) {
+			return 0;
+		}
+		return frame.getData(offset) << 16 | frame.getData(offset + 1) << 8 | frame.getData(offset + 2);
+	}
+
+	private static void ascii(int[] target, int offset, String value, int length) {
+		byte[] bytes = value.getBytes(StandardCharsets.US_ASCII);
+		for (int i = 0; i < length; i++) {
+			target[offset + i] = i < bytes.length ? bytes[i] : ' ';
+		}
+	}
+
+	private enum Hold {
+		TIMED,
+		UNTIL_ACK,
+		UNTIL_DECISION,
+	}
+
+	private record Step(int status, int billType, int[] reply, Hold hold) {
+		static Step timed(int... reply) {
+			return new Step(reply[0], -1, reply, Hold.TIMED);
+		}
+
+		static Step untilAck(int status, int billType) {
+			return new Step(status, billType, new int[]{status, billType}, Hold.UNTIL_ACK);
+		}
+
+		static Step escrow(int billType) {
+			return new Step(ESCROW_POSITION, billType, new int[]{ESCROW_POSITION, billType}, Hold.UNTIL_DECISION);
+		}
+	}
+
+	private static final class DefaultScheduler {
+		private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cashcode-simulator");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
@@ -0,0 +1,172 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class BanknoteJournalTest {
+	@TempDir
+	Path directory;
+
+	@Test
+	public void testAppend_recoveredOnOpen() throws Exception {
+		Path file = directory.resolve("bills.journal");
+		try (BanknoteJournal journal = new BanknoteJournal(file, 2)) {
+			assertEquals(1, journal.append(0x03, "000000000001", 2, 500));
+			assertEquals(2, journal.append(0x03, "000000000001", 5, 5000));
+			// grows past the initial capacity
+			assertEquals(3, journal.append(0x05, "000000000002", 3, 1000));
+		}
+
+		try (BanknoteJournal journal = new BanknoteJournal(file)) {
+			assertEquals(3, journal.size());
+			assertEquals(3, journal.getLastSequence());
+
+			List<BanknoteJournal.Entry> entries = journal.entries();
+			assertEquals(List.of(2, 5, 3), entries.stream().map(BanknoteJournal.Entry::billType).toList());
+			assertEquals(0x05, entries.get(2).address());
+			assertEquals("000000000002", entries.get(2).serialNumber());
+			assertEquals(5000, entries.get(1).value());
+
+			List<BanknoteJournal.Entry> unpersisted = journal.entriesAfter(2);
+			assertEquals(1, unpersisted.size());
+			assertEquals(3, unpersisted.get(0).sequence());
+
+			// a device that did not identify itself
+			assertEquals(4, journal.append(0x03, null, 1, 300));
+			assertEquals("", journal.entriesAfter(3).get(0).serialNumber());
+		}
+	}
+
+	@Test
+	public void testTruncate_dropsPersistedRecords() throws Exception {
+		Path file = directory.resolve("bills.journal");
+		try (BanknoteJournal journal = new BanknoteJournal(file, 2)) {
+			for (int i = 0; i < 40; i++) {
+				journal.append(0x03, "000000000001", i % 8, 100);
+			}
+			long grownSize = Files.size(file);
+
+			journal.truncate(37);
+			assertEquals(3, journal.size());
+			assertEquals(List.of(38L, 39L, 40L), journal.entries().stream().map(BanknoteJournal.Entry::sequence).toList());
+			assertTrue(Files.size(file) < grownSize);
+			assertEquals(41, journal.append(0x03, "000000000001", 2, 500));
+		}
+
+		try (BanknoteJournal journal = new BanknoteJournal(file, 2)) {
+			assertEquals(4, journal.size());
+			assertEquals(41, journal.getLastSequence());
+
+			// sequence numbers go on once every record is dropped
+			journal.truncate(41);
+			assertEquals(0, journal.size());
+		}
+
+		try (BanknoteJournal journal = new BanknoteJournal(file, 2)) {
+			assertEquals(0, journal.size());
+			assertEquals(42, journal.append(0x03, "000000000001", 1, 300));
+		}
+	}
+
+	@Test
+	public void testOpen_tornRecordIgnored() throws Exception {
+		Path file = directory.resolve("bills.journal");
+		try (BanknoteJournal journal = new BanknoteJournal(file)) {
+			journal.append(0x03, "000000000001", 2, 500);
+			journal.append(0x03, "000000000001", 4, 2000);
+		}
+
+		// a crash in the middle of the second record
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.wrap(new byte[]{0x7F, 0x7F}), 16 + BanknoteJournal.RECORD_SIZE + 17);
+		}
+
+		try (BanknoteJournal journal = new BanknoteJournal(file)) {
+			assertEquals(1, journal.size());
+			assertEquals(2, journal.append(0x03, "000000000001", 6, 10000));
+			assertEquals(List.of(2, 6), journal.entries().stream().map(BanknoteJournal.Entry::billType).toList());
+		}
+	}
+
+	@Test
+	public void testOpen_notAJournal() throws Exception {
+		Path file = directory.resolve("other.txt");
+		Files.writeString(file, "not a journal, just text");
+		assertThrows(IOException.class, () -> new BanknoteJournal(file));
+	}
+
+	@Test
+	public void testJournal_whilePolling() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		simulator.setIdentification("SM-RU1353", "41K012345678");
+		CashCodeSM cashCode = device.cashCode();
+		cashCode.setDenominationTable(new DenominationTable(new long[]{100, 300, 500, 1000, 2000, 5000}));
+		cashCode.powerUp();
+
+		try (BanknoteJournal journal = new BanknoteJournal(directory.resolve("bills.journal"))) {
+			cashCode.setJournal(journal);
+			CashCodeEvents eventListener = mock(CashCodeEvents.class);
+			PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+			simulator.insertBill(3);
+			verify(eventListener, timeout(5000)).onBillStack(3);
+			polling.cancel();
+
+			List<BanknoteJournal.Entry> entries = journal.entries();
+			assertEquals(1, entries.size());
+			assertEquals(0x03, entries.get(0).address());
+			assertEquals("41K012345678", entries.get(0).serialNumber());
+			assertEquals(3, entries.get(0).billType());
+			assertEquals(1000, entries.get(0).value());
+		}
+	}
+
+	@Test
+	public void testJournal_failedAppendNotAcknowledged() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		CashCodeSM cashCode = device.cashCode();
+		cashCode.setPollInterval(PollInterval.fixed(5));
+		cashCode.powerUp();
+
+		BanknoteJournal closed = new BanknoteJournal(directory.resolve("closed.journal"));
+		closed.close();
+		cashCode.setJournal(closed);
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+		// the device keeps reporting the bill while it cannot be written
+		simulator.insertBill(3);
+		verify(eventListener, timeout(5000)).onStack();
+		Thread.sleep(200);
+		verify(eventListener, never()).onBillStack(anyInt());
+		assertFalse(simulator.isScriptDone());
+		assertEquals(0, cashCode.getLedger().getCount());
+
+		try (BanknoteJournal journal = new BanknoteJournal(directory.resolve("bills.journal"))) {
+			cashCode.setJournal(journal);
+			verify(eventListener, timeout(5000)).onBillStack(3);
+			polling.cancel();
+			polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+			verify(eventListener, times(1)).onBillStack(3);
+			assertEquals(1, journal.size());
+			assertEquals(1, cashCode.getLedger().getCount());
+		}
+	}
+}
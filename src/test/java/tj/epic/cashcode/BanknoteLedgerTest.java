@@ -0,0 +1,114 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BanknoteLedgerTest {
+	private final DenominationTable table = new DenominationTable(new long[]{100, 500, 1000, 2000, 5000});
+
+	@Test
+	public void testAppend_totals() {
+		BanknoteLedger ledger = new BanknoteLedger(16, table);
+		ledger.append(0);
+		ledger.append(2);
+		ledger.append(2);
+		ledger.append(7);
+
+		assertEquals(4, ledger.getCount());
+		assertEquals(2, ledger.getCount(2));
+		assertEquals(1, ledger.getCount(7));
+		assertEquals(2100, ledger.getTotal());
+		assertArrayEquals(new int[]{0, 2, 2, 7}, ledger.snapshot());
+	}
+
+	@Test
+	public void testAppend_ringKeepsMostRecent() {
+		BanknoteLedger ledger = new BanknoteLedger(4, table);
+		for (int i = 0; i < 10; i++) {
+			ledger.append(i % 5);
+		}
+
+		assertEquals(10, ledger.getCount());
+		assertEquals(4, ledger.size());
+		assertEquals(2 * (100 + 500 + 1000 + 2000 + 5000), ledger.getTotal());
+		assertArrayEquals(new int[]{1, 2, 3, 4}, ledger.snapshot());
+		assertEquals(1, ledger.get(0));
+		assertThrows(IndexOutOfBoundsException.class, () -> ledger.get(4));
+
+		long[] visitedTotal = {0};
+		ledger.forEach((code, value) -> visitedTotal[0] += value);
+		assertEquals(500 + 1000 + 2000 + 5000, visitedTotal[0]);
+	}
+
+	@Test
+	public void testSnapshot_concurrentWithWriter() throws Exception {
+		BanknoteLedger ledger = new BanknoteLedger(1 << 17, DenominationTable.empty());
+		int count = 100_000;
+		AtomicReference<AssertionError> failure = new AtomicReference<>();
+
+		Thread reader = new Thread(() -> {
+			while (ledger.getCount() < count) {
+				int[] snapshot = ledger.snapshot();
+				// the writer appends 0, 1, 2, ... so every snapshot must be an unbroken prefix
+				for (int i = 0; i < snapshot.length; i++) {
+					if (snapshot[i] != i) {
+						failure.set(new AssertionError("Torn snapshot at " + i));
+						return;
+					}
+				}
+			}
+		});
+		reader.start();
+
+		for (int i = 0; i < count; i++) {
+			ledger.append(i);
+		}
+		reader.join();
+
+		assertNull(failure.get());
+	}
+
+	@Test
+	public void testSnapshot_concurrentWithWrappingWriter() throws Exception {
+		BanknoteLedger ledger = new BanknoteLedger(64, DenominationTable.empty());
+		int count = 1_000_000;
+		AtomicReference<AssertionError> failure = new AtomicReference<>();
+
+		Thread reader = new Thread(() -> {
+			int[] copy = new int[ledger.getCapacity()];
+			while (ledger.getCount() < count) {
+				// the writer appends 0, 1, 2, ... so every read must be a run of consecutive codes
+				int[] snapshot = ledger.snapshot();
+				int copied = ledger.copyTo(copy);
+				for (int i = 1; i < snapshot.length; i++) {
+					if (snapshot[i] != snapshot[0] + i) {
+						failure.set(new AssertionError("Torn snapshot at " + i));
+						return;
+					}
+				}
+				for (int i = 1; i < copied; i++) {
+					if (copy[i] != copy[0] + i) {
+						failure.set(new AssertionError("Torn copy at " + i));
+						return;
+					}
+				}
+				if (snapshot.length > ledger.getCapacity()) {
+					failure.set(new AssertionError("Snapshot of " + snapshot.length + " codes"));
+					return;
+				}
+			}
+		});
+		reader.start();
+
+		for (int i = 0; i < count; i++) {
+			ledger.append(i);
+		}
+		reader.join();
+
+		assertNull(failure.get());
+		assertEquals(count - 64, ledger.get(0));
+	}
+}
@@ -0,0 +1,91 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BillTableCacheTest {
+	@TempDir
+	Path directory;
+
+	private InMemoryTransport transport;
+	private BillValidatorSimulator simulator;
+
+	@BeforeEach
+	public void setup() {
+		transport = new InMemoryTransport();
+		simulator = TestsHelper.simulator(transport);
+		simulator.setIdentification("SM-RU1353", "41K012345678", 0x01020304050607L);
+	}
+
+	@Test
+	public void testIdentification_parsed() {
+		String text = "SM-RU1353      41K012345678";
+		int[] data = new int[34];
+		for (int i = 0; i < text.length(); i++) {
+			data[i] = text.charAt(i);
+		}
+		data[33] = 0x2A;
+
+		DeviceIdentification identification = DeviceIdentification.fromReply(new Frame(0x03, data));
+		assertEquals("SM-RU1353", identification.partNumber());
+		assertEquals("41K012345678", identification.serialNumber());
+		assertEquals(0x2A, identification.assetNumber());
+		assertThrows(IllegalArgumentException.class, () -> DeviceIdentification.fromReply(new Frame(0x03, new int[]{0x30})));
+	}
+
+	@Test
+	public void testPowerUp_identifiesWithoutCache() throws Exception {
+		CashCodeSM cashCode = powerUp(null);
+
+		assertEquals(new DeviceIdentification("SM-RU1353", "41K012345678", 0x01020304050607L), cashCode.getIdentification());
+		assertEquals(0, simulator.getCommandCount(BillValidatorCommand.GET_BILL_TABLE));
+		assertTrue(cashCode.getDenominationTable().isEmpty());
+	}
+
+	@Test
+	public void testPowerUp_billTableCached() throws Exception {
+		Path file = directory.resolve("bill-tables.cache");
+
+		CashCodeSM first = powerUp(new BillTableCache(file));
+		assertEquals(1, simulator.getCommandCount(BillValidatorCommand.GET_BILL_TABLE));
+		assertEquals(1000, first.getDenominationTable().getValue(3));
+		assertEquals("TJK", first.getDenominationTable().getCurrency(3));
+		assertTrue(Files.exists(file));
+
+		// a later start reads the cache file instead of the device
+		CashCodeSM second = powerUp(new BillTableCache(file));
+		assertEquals(1, simulator.getCommandCount(BillValidatorCommand.GET_BILL_TABLE));
+		assertEquals(1000, second.getDenominationTable().getValue(3));
+		assertEquals("TJK", second.getDenominationTable().getCurrency(3));
+		assertEquals(0, second.getDenominationTable().getValue(20));
+
+		// another validator, or new firmware, has its own table
+		simulator.setIdentification("SM-RU1354", "41K012345678");
+		powerUp(new BillTableCache(file));
+		assertEquals(2, simulator.getCommandCount(BillValidatorCommand.GET_BILL_TABLE));
+		assertEquals(2, new BillTableCache(file).size());
+	}
+
+	@Test
+	public void testOpen_notACache() throws Exception {
+		Path file = directory.resolve("other.txt");
+		Files.writeString(file, "not a cache, just text");
+		assertThrows(IOException.class, () -> new BillTableCache(file));
+	}
+
+	private CashCodeSM powerUp(BillTableCache cache) throws Exception {
+		CashCodeSM cashCode = TestsHelper.connect(transport);
+		cashCode.setBillTableCache(cache);
+		cashCode.powerUp();
+		cashCode.disconnect();
+		return cashCode;
+	}
+}
@@ -0,0 +1,84 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class BillTypesTest {
+	private BillValidatorSimulator simulator;
+	private CashCodeSM cashCode;
+
+	@BeforeEach
+	public void setup() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		simulator = device.simulator();
+		cashCode = device.cashCode();
+	}
+
+	@Test
+	public void testSetBillTypes_beforePowerUp() throws Exception {
+		cashCode.setBillTypes(0b1010, 0b0010).toCompletableFuture().get(1, TimeUnit.SECONDS);
+		assertEquals(BillValidatorSimulator.POWER_UP, simulator.getStatus());
+
+		cashCode.powerUp();
+
+		assertEquals(0b1010, simulator.getEnabledBillTypes());
+		assertEquals(0b0010, simulator.getEscrowBillTypes());
+	}
+
+	@Test
+	public void testPowerUp_maskLikeAnErrorStatus() throws Exception {
+		// GET_STATUS answers with the masks, the first byte 0x41 is not a full drop cassette
+		cashCode.setBillTypes(0x410001, 0).toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		cashCode.powerUp();
+
+		assertEquals(0x410001, simulator.getEnabledBillTypes());
+		assertEquals(BillValidatorError.NONE, cashCode.getError());
+	}
+
+	@Test
+	public void testSetBillTypes_whilePolling() throws Exception {
+		cashCode.powerUp();
+
+		CountDownLatch returned = new CountDownLatch(1);
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		doAnswer(invocation -> {
+			returned.countDown();
+			return null;
+		}).when(eventListener).onBillReturned();
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		long commands = simulator.getCommandCount();
+
+		// only bills up to 10 somoni (types 0..3) fit the amount due
+		int upToTen = new DenominationTable(new long[]{100, 300, 500, 1000, 2000, 5000}).typesUpTo(1000);
+		assertEquals(0b1111, upToTen);
+		cashCode.setBillTypes(upToTen, 0).toCompletableFuture().get(1, TimeUnit.SECONDS);
+		assertEquals(upToTen, simulator.getEnabledBillTypes());
+		assertTrue(polling.isActive());
+		assertTrue(simulator.getCommandCount() > commands);
+
+		simulator.insertBill(5);
+		simulator.insertBill(3);
+		simulator.returnBill(1);
+		assertTrue(returned.await(5, TimeUnit.SECONDS));
+
+		verify(eventListener, atLeastOnce()).onReject();
+		verify(eventListener, never()).onBillStack(5);
+		verify(eventListener).onBillStack(3);
+
+		cashCode.stopPollingAsync().toCompletableFuture().get(1, TimeUnit.SECONDS);
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		// once bills are disabled, a change is kept for the next power up
+		cashCode.setBillTypes(CashCodeSM.ALL_BILL_TYPES, 0).toCompletableFuture().get(1, TimeUnit.SECONDS);
+		assertEquals(0, simulator.getEnabledBillTypes());
+	}
+}
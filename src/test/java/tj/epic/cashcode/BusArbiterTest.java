@@ -0,0 +1,145 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import tj.epic.cashcode.exceptions.GeneralCashCodeException;
+import tj.epic.cashcode.exceptions.InvalidCashCodeStateException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class BusArbiterTest {
+	@Mock
+	private SerialPort serialPort;
+
+	@Mock
+	private CashCodeEvents firstListener;
+
+	@Mock
+	private CashCodeEvents secondListener;
+
+	private BusArbiter arbiter;
+
+	// address of the last command written to the bus
+	private final AtomicInteger lastAddress = new AtomicInteger();
+
+	@BeforeEach
+	public void setup() throws Exception {
+		MockitoAnnotations.openMocks(this);
+		when(serialPort.isOpened()).thenReturn(true);
+		when(serialPort.writeBytes(any())).thenAnswer(invocation -> {
+			byte[] frame = invocation.getArgument(0);
+			lastAddress.set(frame[1]);
+			return true;
+		});
+
+		arbiter = new BusArbiter(serialPort);
+		arbiter.open(9600, 8, 1, 0);
+	}
+
+	@Test
+	public void testStartPolling_routesRepliesByAddress() throws Exception {
+		CashCodeSM first = arbiter.attach(0x03, firstListener);
+		CashCodeSM second = arbiter.attach(0x05, secondListener);
+		first.setPoweredUp(true);
+		first.setBillEnabled(true);
+		second.setPoweredUp(true);
+		second.setBillEnabled(true);
+
+		CountDownLatch stacked = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			stacked.countDown();
+			return null;
+		}).when(secondListener).onBillStack(0x04);
+
+		AtomicInteger secondPolls = new AtomicInteger();
+		when(serialPort.readIntArray()).thenAnswer(invocation -> {
+			if (lastAddress.get() == 0x03) {
+				return TestsHelper.frameFrom(0x03, 0x14);
+			}
+			return secondPolls.getAndIncrement() == 0 ? TestsHelper.frameFrom(0x05, 0x81, 0x04) : TestsHelper.frameFrom(0x05, 0x14);
+		});
+
+		PollingHandle polling = arbiter.startPolling();
+		assertTrue(stacked.await(5, TimeUnit.SECONDS));
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		verify(firstListener, never()).onBillStack(anyInt());
+		assertTrue(first.getInsertedBanknotes().isEmpty());
+		assertEquals(1, second.getInsertedBanknotes().size());
+	}
+
+	@Test
+	public void testStartPolling_deviceAlreadyPolling() throws Exception {
+		CashCodeSM first = arbiter.attach(0x03, firstListener);
+		arbiter.attach(0x05, secondListener);
+		when(serialPort.readIntArray()).thenAnswer(invocation -> TestsHelper.frameFrom(lastAddress.get(), 0x14));
+
+		PollingHandle polling = arbiter.startPolling();
+		assertTrue(polling.isActive());
+
+		// neither the device's own loop nor another arbiter may poll it meanwhile
+		ExecutionException e = assertThrows(ExecutionException.class, () -> first.startPollingAsync(firstListener).completion().toCompletableFuture().get(1, TimeUnit.SECONDS));
+		assertInstanceOf(InvalidCashCodeStateException.class, e.getCause());
+		e = assertThrows(ExecutionException.class, () -> arbiter.startPolling().completion().toCompletableFuture().get(1, TimeUnit.SECONDS));
+		assertInstanceOf(InvalidCashCodeStateException.class, e.getCause());
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		// polling ended, the devices may be polled again
+		PollingHandle again = arbiter.startPolling();
+		assertTrue(again.isActive());
+		again.cancel();
+		again.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testStartPolling_detachWhilePolling() throws Exception {
+		when(serialPort.readIntArray()).thenAnswer(invocation -> TestsHelper.frameFrom(lastAddress.get(), 0x14));
+		CashCodeSM[] devices = new CashCodeSM[4];
+		for (int i = 0; i < devices.length; i++) {
+			devices[i] = arbiter.attach(0x03 + i, firstListener);
+			devices[i].setPoweredUp(true);
+			devices[i].setBillEnabled(true);
+		}
+
+		PollingHandle polling = arbiter.startPolling();
+		for (int i = devices.length - 1; i > 0; i--) {
+			Thread.sleep(20);
+			arbiter.detach(devices[i]);
+		}
+		Thread.sleep(20);
+
+		assertTrue(polling.isActive());
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testTransceive_dropsReplyFromOtherAddress() throws Exception {
+		CashCodeSM first = arbiter.attach(0x03, firstListener);
+		first.setBillEnabled(true);
+
+		// another peripheral answers, the validator stays silent
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frameFrom(0x05, 0x00), (int[]) null);
+
+		assertThrows(GeneralCashCodeException.class, () -> first.stopPolling());
+	}
+
+	@Test
+	public void testAttach_duplicateAddress() {
+		arbiter.attach(0x03, firstListener);
+		assertThrows(IllegalArgumentException.class, () -> arbiter.attach(0x03, secondListener));
+	}
+}
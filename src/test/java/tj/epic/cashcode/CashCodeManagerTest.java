@@ -0,0 +1,111 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class CashCodeManagerTest {
+	private static final int DEVICES = 8;
+
+	private CashCodeManager manager;
+
+	@BeforeEach
+	public void setup() {
+		manager = new CashCodeManager(2);
+	}
+
+	@AfterEach
+	public void tearDown() {
+		manager.close();
+	}
+
+	@Test
+	public void testStartAll_pollsEveryDevice() throws Exception {
+		CountDownLatch billsStacked = new CountDownLatch(DEVICES);
+
+		for (int i = 0; i < DEVICES; i++) {
+			String deviceId = "device-" + i;
+			manager.register(deviceId, device());
+			manager.addListener(deviceId, new CashCodeEventsAdapter() {
+				@Override
+				public void onBillStack(int value) {
+					billsStacked.countDown();
+				}
+			});
+		}
+
+		manager.startAll().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		assertTrue(billsStacked.await(5, TimeUnit.SECONDS));
+
+		for (String deviceId : manager.getDeviceIds()) {
+			assertEquals(DeviceState.POLLING, manager.getState(deviceId));
+			assertEquals(1, manager.getDevice(deviceId).getInsertedBanknotes().size());
+		}
+
+		manager.stopAll().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		for (String deviceId : manager.getDeviceIds()) {
+			assertEquals(DeviceState.STOPPED, manager.getState(deviceId));
+		}
+	}
+
+	@Test
+	public void testRegister_duplicate() throws Exception {
+		manager.register("device", device());
+		assertThrows(IllegalArgumentException.class, () -> manager.register("device", device()));
+	}
+
+	/**
+	 * A connected device whose port answers every command through an RXCHAR event: ACK to the power up sequence,
+	 * a stacked bill to the first poll, ACK after that.
+	 */
+	private static CashCodeSM device() throws Exception {
+		SerialPort serialPort = mock(SerialPort.class);
+		when(serialPort.isOpened()).thenReturn(true);
+		when(serialPort.readIntArray(anyInt())).thenReturn(
+				TestsHelper.frame(0x00), TestsHelper.frame(0x00), TestsHelper.frame(0x00), TestsHelper.frame(0x00),
+				TestsHelper.frame(0x00, 0x00, 0x00, 0x00, 0x00, 0x00), TestsHelper.frame(0x00), TestsHelper.frame(0x00), TestsHelper.frame(0x00),
+				TestsHelper.frame(0x81, 0x02),
+				TestsHelper.frame(0x00));
+
+		CashCodeSM device = new CashCodeSM();
+		device.setSerialPort(serialPort);
+		device.setConnected(true);
+		device.setReceiveMode(ReceiveMode.EVENT_DRIVEN);
+
+		ArgumentCaptor<SerialPortEventListener> listener = ArgumentCaptor.forClass(SerialPortEventListener.class);
+		verify(serialPort).addEventListener(listener.capture(), eq(SerialPort.MASK_RXCHAR));
+		when(serialPort.writeBytes(any())).thenAnswer(invocation -> {
+			byte[] frame = invocation.getArgument(0);
+			// ACK and NAK from the controller are not answered
+			if (frame[3] != 0x00 && frame[3] != (byte) 0xFF) {
+				listener.getValue().serialEvent(new SerialPortEvent("COM1", SerialPortEvent.RXCHAR, 6));
+			}
+			return true;
+		});
+		return device;
+	}
+
+	private static class CashCodeEventsAdapter implements CashCodeEvents {
+		public void onAccept() {}
+		public void onReject() {}
+		public void onEscrowPosition() {}
+		public void onStack() {}
+		public void onBillStack(int value) {}
+		public void onReturn() {}
+		public void onBillReturned() {}
+		public void onDropCassetteOutOfPosition() {}
+		public void onCassetteInitialize() {}
+	}
+}
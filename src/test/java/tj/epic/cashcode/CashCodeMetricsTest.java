@@ -0,0 +1,103 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class CashCodeMetricsTest {
+	@Test
+	public void testMetrics_billStacked() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		CashCodeSM cashCode = device.cashCode();
+
+		DefaultCashCodeMetrics metrics = new DefaultCashCodeMetrics();
+		cashCode.setMetrics(metrics);
+		cashCode.powerUp();
+
+		CountDownLatch stacked = new CountDownLatch(1);
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		doAnswer(invocation -> {
+			stacked.countDown();
+			return null;
+		}).when(eventListener).onBillStack(4);
+
+		simulator.insertBill(4);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		assertTrue(stacked.await(5, TimeUnit.SECONDS));
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		assertEquals(1, metrics.getPollStatusCount(0x81));
+		assertTrue(metrics.getPollStatusCount(0x15) > 0);
+		assertEquals("1", metrics.getPollStatusCounts().get("0x81").toString());
+		assertEquals(metrics.getFramesReceived(), metrics.getRoundTrip().getCount());
+		assertTrue(metrics.getFramesSent() > metrics.getFramesReceived());
+		assertEquals(1, metrics.getEscrowToStack().getCount());
+		assertTrue(metrics.getEscrowToStack().getMeanNanos() >= TimeUnit.MILLISECONDS.toNanos(20));
+		assertTrue(metrics.getPollJitter().getCount() > 0);
+		assertEquals(0, metrics.getTimeouts());
+	}
+
+	@Test
+	public void testMetrics_timeoutAndCrcError() throws Exception {
+		int[] corrupted = TestsHelper.frame(0x14);
+		corrupted[corrupted.length - 1] ^= 0xFF;
+
+		SerialPort serialPort = mock(SerialPort.class);
+		when(serialPort.writeBytes(any(byte[].class))).thenReturn(true);
+		when(serialPort.readIntArray()).thenReturn(corrupted, (int[]) null);
+
+		DefaultCashCodeMetrics metrics = new DefaultCashCodeMetrics();
+		CcnetLink link = new CcnetLink(0x03);
+		link.setSerialPort(serialPort);
+		link.setMetrics(metrics);
+		link.setMaxRetries(0);
+
+		assertThrows(TimeoutException.class, () -> link.transceive(BillValidatorCommand.POLL, new int[0]));
+		assertEquals(1, metrics.getFramesSent());
+		assertEquals(0, metrics.getFramesReceived());
+		assertEquals(1, metrics.getCrcErrors());
+		assertEquals(1, metrics.getTimeouts());
+	}
+
+	@Test
+	public void testRegisterMBean() throws Exception {
+		DefaultCashCodeMetrics metrics = new DefaultCashCodeMetrics();
+		metrics.onFrameSent(BillValidatorCommand.POLL);
+		metrics.onRoundTrip(BillValidatorCommand.POLL, 3_000_000);
+		metrics.registerMBean("kiosk-1");
+		try {
+			ObjectName name = metrics.getObjectName();
+			assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "FramesSent"));
+			assertNotNull(ManagementFactory.getPlatformMBeanServer().getAttribute(name, "RoundTrip"));
+		} finally {
+			metrics.unregisterMBean();
+		}
+	}
+
+	@Test
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 100; i++) {
+			histogram.record(i * 1000L);
+		}
+
+		LatencySnapshot snapshot = histogram.snapshot();
+		assertEquals(100, snapshot.getCount());
+		assertEquals(50_500, snapshot.getMeanNanos());
+		assertEquals(100_000, snapshot.getMaxNanos());
+		assertTrue(snapshot.getP50Nanos() >= 50_000 && snapshot.getP50Nanos() < 100_000);
+		assertTrue(snapshot.getP99Nanos() >= 99_000 && snapshot.getP99Nanos() <= 100_000);
+	}
+}
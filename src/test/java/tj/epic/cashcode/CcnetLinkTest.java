@@ -0,0 +1,80 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortEvent;
+import jssc.SerialPortEventListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+public class CcnetLinkTest {
+	@Mock
+	private SerialPort serialPort;
+
+	private CcnetLink link;
+	private SerialPortEventListener eventListener;
+
+	@BeforeEach
+	public void setup() throws Exception {
+		MockitoAnnotations.openMocks(this);
+		when(serialPort.isOpened()).thenReturn(true);
+
+		link = new CcnetLink(0x03);
+		link.setSerialPort(serialPort);
+		link.setReceiveMode(ReceiveMode.EVENT_DRIVEN);
+
+		ArgumentCaptor<SerialPortEventListener> captor = ArgumentCaptor.forClass(SerialPortEventListener.class);
+		verify(serialPort).addEventListener(captor.capture(), eq(SerialPort.MASK_RXCHAR));
+		eventListener = captor.getValue();
+	}
+
+	@Test
+	public void testRequest_completedByRxEvent() throws Exception {
+		int[] reply = TestsHelper.frame(0x14);
+		when(serialPort.readIntArray(anyInt())).thenReturn(reply);
+
+		CompletableFuture<Frame> response = link.request(BillValidatorCommand.POLL, new int[]{});
+		assertFalse(response.isDone());
+		verify(serialPort).writeBytes(any(byte[].class));
+
+		eventListener.serialEvent(new SerialPortEvent("COM1", SerialPortEvent.RXCHAR, reply.length));
+
+		assertTrue(response.isDone());
+		assertEquals(0x14, response.get().getStatus());
+		verify(serialPort, never()).readIntArray();
+	}
+
+	@Test
+	public void testRequest_queuedBehindPendingExchange() throws Exception {
+		CompletableFuture<Frame> first = link.request(BillValidatorCommand.POLL, new int[]{});
+		CompletableFuture<Frame> second = link.request(BillValidatorCommand.GET_STATUS, new int[]{});
+		verify(serialPort, times(1)).writeBytes(any(byte[].class));
+
+		int[] reply = TestsHelper.frame(0x14);
+		when(serialPort.readIntArray(anyInt())).thenReturn(reply);
+		eventListener.serialEvent(new SerialPortEvent("COM1", SerialPortEvent.RXCHAR, reply.length));
+
+		assertEquals(0x14, first.get().getStatus());
+		assertFalse(second.isDone());
+		verify(serialPort, times(2)).writeBytes(any(byte[].class));
+	}
+
+	@Test
+	public void testRequest_timeout() {
+		CompletableFuture<Frame> response = link.request(BillValidatorCommand.POLL, new int[]{});
+
+		ExecutionException e = assertThrows(ExecutionException.class, response::get);
+		assertInstanceOf(TimeoutException.class, e.getCause());
+	}
+}
@@ -0,0 +1,110 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class CommandQueueTest {
+
+	@Test
+	public void testRun_priorityOrder() throws Exception {
+		CcnetLink link = mock(CcnetLink.class);
+		List<BillValidatorCommand> sent = new ArrayList<>();
+		when(link.request(any(), any())).thenAnswer(invocation -> {
+			BillValidatorCommand command = invocation.getArgument(0);
+			sent.add(command);
+			return CompletableFuture.completedFuture(new Frame(0x03, new int[]{command.ordinal()}));
+		});
+		CommandQueue commands = new CommandQueue(link);
+
+		// a poll in flight holds the line
+		CompletableFuture<Void> poll = new CompletableFuture<>();
+		CompletableFuture<Void> firstPoll = commands.run(CommandQueue.Priority.BACKGROUND, () -> poll);
+
+		CompletableFuture<Frame> nextPoll = commands.submit(BillValidatorCommand.POLL, CommandQueue.Priority.BACKGROUND, () -> CashCodeSM.NO_DATA);
+		CompletableFuture<Frame> status = commands.submit(BillValidatorCommand.GET_STATUS, CommandQueue.Priority.CONTROL, () -> CashCodeSM.NO_DATA);
+		CompletableFuture<Frame> dropped = commands.submit(BillValidatorCommand.ENABLE_BILL_TYPES, CommandQueue.Priority.CONTROL, () -> null);
+		CompletableFuture<Frame> stack = commands.submit(BillValidatorCommand.STACK, CommandQueue.Priority.ESCROW, () -> CashCodeSM.NO_DATA);
+		assertTrue(sent.isEmpty());
+		assertEquals(4, commands.size());
+
+		poll.complete(null);
+
+		assertTrue(firstPoll.isDone());
+		assertEquals(List.of(BillValidatorCommand.STACK, BillValidatorCommand.GET_STATUS, BillValidatorCommand.POLL), sent);
+		assertEquals(BillValidatorCommand.STACK.ordinal(), stack.get().getStatus());
+		assertEquals(BillValidatorCommand.GET_STATUS.ordinal(), status.get().getStatus());
+		assertEquals(BillValidatorCommand.POLL.ordinal(), nextPoll.get().getStatus());
+		assertNull(dropped.get());
+		assertEquals(0, commands.size());
+	}
+
+	@Test
+	public void testRun_failureGoesToCaller() {
+		CcnetLink link = mock(CcnetLink.class);
+		when(link.request(any(), any())).thenThrow(new IllegalStateException("Port closed"));
+		CommandQueue commands = new CommandQueue(link);
+
+		CompletableFuture<Frame> failed = commands.submit(BillValidatorCommand.GET_STATUS, CommandQueue.Priority.CONTROL, () -> CashCodeSM.NO_DATA);
+		assertTrue(failed.isCompletedExceptionally());
+
+		// the line is free again
+		doReturn(CompletableFuture.completedFuture(new Frame(0x03, new int[]{0x00}))).when(link).request(any(), any());
+		assertTrue(commands.submit(BillValidatorCommand.GET_STATUS, CommandQueue.Priority.CONTROL, () -> CashCodeSM.NO_DATA).isDone());
+	}
+
+	@Test
+	public void testPowerUp_holdsTheLine() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		simulator.setInitializeMs(200);
+		CashCodeSM cashCode = device.cashCode();
+
+		// disabling bills while the device initializes goes out after the power up, not between its steps
+		CompletableFuture<Void> poweredUp = cashCode.powerUpAsync().toCompletableFuture();
+		Thread.sleep(50);
+		cashCode.stopPollingAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		assertTrue(poweredUp.isDone());
+		poweredUp.get();
+		assertEquals(0, simulator.getEnabledBillTypes());
+	}
+
+	@Test
+	public void testStopPolling_fromEventListener() throws Exception {
+		for (ReceiveMode receiveMode : ReceiveMode.values()) {
+			TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+			BillValidatorSimulator simulator = device.simulator();
+			CashCodeSM cashCode = device.cashCode();
+			// the listener runs on the thread the reply arrived on, not the one that started the poll
+			cashCode.setReceiveMode(receiveMode);
+			cashCode.powerUp();
+
+			CashCodeEvents eventListener = mock(CashCodeEvents.class);
+			doAnswer(invocation -> {
+				cashCode.stopPolling();
+				return null;
+			}).when(eventListener).onBillStack(anyInt());
+
+			simulator.insertBill(2);
+			CompletableFuture<Void> polling = CompletableFuture.runAsync(() -> {
+				try {
+					cashCode.startPolling(eventListener);
+				} catch (Exception e) {
+					fail(e);
+				}
+			});
+
+			polling.get(5, TimeUnit.SECONDS);
+			verify(eventListener).onBillStack(2);
+			assertEquals(0, simulator.getEnabledBillTypes(), receiveMode.name());
+		}
+	}
+}
@@ -0,0 +1,34 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DenominationTableTest {
+
+	@Test
+	public void testFromBillTable() {
+		int[] data = new int[DenominationTable.BILL_TYPES * 5];
+		// 10 TJS, 5 TJS, 0.5 TJS
+		writeEntry(data, 0, 1, "TJK", 0x01);
+		writeEntry(data, 1, 5, "TJK", 0x00);
+		writeEntry(data, 2, 5, "TJK", 0x81);
+		Frame reply = new Frame(0x03, data);
+
+		DenominationTable billTable = DenominationTable.fromBillTable(reply, 2);
+
+		assertEquals(1000, billTable.getValue(0));
+		assertEquals(500, billTable.getValue(1));
+		assertEquals(50, billTable.getValue(2));
+		assertEquals(0, billTable.getValue(3));
+		assertEquals("TJK", billTable.getCurrency(0));
+	}
+
+	private static void writeEntry(int[] data, int code, int digit, String country, int exponent) {
+		data[code * 5] = digit;
+		data[code * 5 + 1] = country.charAt(0);
+		data[code * 5 + 2] = country.charAt(1);
+		data[code * 5 + 3] = country.charAt(2);
+		data[code * 5 + 4] = exponent;
+	}
+}
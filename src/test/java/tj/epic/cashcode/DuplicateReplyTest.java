@@ -0,0 +1,60 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DuplicateReplyTest {
+
+	@Test
+	public void testPolling_lostAckDeliveredOnce() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		CashCodeSM cashCode = device.cashCode();
+		cashCode.setPollInterval(PollInterval.fixed(5));
+		cashCode.powerUp();
+
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+		// the device reports the stacked bill again for each ACK it misses
+		simulator.loseAcks(3);
+		simulator.insertBill(2);
+		verify(eventListener, timeout(5000)).onBillStack(2);
+		while (!simulator.isScriptDone()) {
+			Thread.sleep(5);
+		}
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		verify(eventListener, times(1)).onBillStack(2);
+		verify(eventListener, times(1)).onStack();
+		assertEquals(1, cashCode.getLedger().getCount());
+		// every repeat was still acknowledged
+		assertTrue(simulator.getCommandCount(BillValidatorCommand.ACK) >= 4);
+	}
+
+	@Test
+	public void testPolling_eventsNumbered() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		CashCodeSM cashCode = device.cashCode();
+		cashCode.setPollInterval(PollInterval.fixed(5));
+		cashCode.powerUp();
+
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		simulator.insertBill(1);
+		verify(eventListener, timeout(5000)).onBillStack(1);
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+
+		// accepting, stacking and stacked, each once although reported for several polls
+		assertEquals(3, cashCode.getEventSequence());
+	}
+}
@@ -0,0 +1,93 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class EscrowTest {
+	private BillValidatorSimulator simulator;
+	private CashCodeSM cashCode;
+	private CashCodeEvents eventListener;
+	private CountDownLatch finished;
+
+	@BeforeEach
+	public void setup() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		simulator = device.simulator();
+		cashCode = device.cashCode();
+
+		finished = new CountDownLatch(1);
+		eventListener = mock(CashCodeEvents.class);
+		doAnswer(invocation -> {
+			finished.countDown();
+			return null;
+		}).when(eventListener).onBillReturned();
+	}
+
+	@Test
+	public void testEscrow_stackOrReturn() throws Exception {
+		// only bills up to type 4 fit the amount due
+		cashCode.setEscrowHandler(EscrowHandler.of(billType -> billType <= 4 ? EscrowDecision.STACK : EscrowDecision.RETURN));
+		simulator.insertBill(3);
+		simulator.insertBill(6);
+
+		poll();
+
+		verify(eventListener, atLeastOnce()).onEscrowPosition();
+		verify(eventListener).onBillStack(3);
+		verify(eventListener, never()).onBillStack(6);
+		assertEquals(1, cashCode.getLedger().getCount());
+	}
+
+	@Test
+	public void testEscrow_asyncDecisionWithHold() throws Exception {
+		AtomicInteger asked = new AtomicInteger();
+		cashCode.setEscrowTimeoutMs(200);
+		// holds twice, then decides from another thread
+		cashCode.setEscrowHandler(billType -> asked.incrementAndGet() <= 2
+				? CompletableFuture.completedFuture(EscrowDecision.HOLD)
+				: CompletableFuture.supplyAsync(() -> EscrowDecision.STACK));
+		simulator.insertBill(1);
+		simulator.insertBill(7);
+		simulator.returnBill(2);
+
+		long startedAt = System.nanoTime();
+		poll();
+
+		// the first bill was held past the escrow timeout and stacked once decided
+		verify(eventListener).onBillStack(1);
+		verify(eventListener).onBillStack(7);
+		assertEquals(2, cashCode.getLedger().getCount());
+		assertEquals(4, asked.get());
+		assertTrue(System.nanoTime() - startedAt >= TimeUnit.MILLISECONDS.toNanos(200));
+	}
+
+	@Test
+	public void testEscrow_noDecisionReturnsBill() throws Exception {
+		cashCode.setEscrowTimeoutMs(100);
+		cashCode.setEscrowHandler(billType -> new CompletableFuture<>());
+		simulator.insertBill(2);
+
+		poll();
+
+		verify(eventListener, never()).onBillStack(anyInt());
+		assertEquals(0, cashCode.getLedger().getCount());
+	}
+
+	private void poll() throws Exception {
+		cashCode.powerUp();
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+	}
+}
@@ -0,0 +1,252 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class EventPublisherTest {
+
+	@Test
+	public void testPublish_eventsInOrder() throws Exception {
+		BillValidatorEventPublisher publisher = new BillValidatorEventPublisher();
+		Collector collector = new Collector(Long.MAX_VALUE);
+		publisher.subscribe(collector);
+
+		publisher.publish(event(1, BillValidatorEvent.Type.ACCEPTING, BillValidatorEvent.NO_BILL));
+		publisher.publish(event(2, BillValidatorEvent.Type.ESCROW_POSITION, BillValidatorEvent.NO_BILL));
+		publisher.publish(event(3, BillValidatorEvent.Type.BILL_STACKED, 5));
+		publisher.close();
+
+		collector.completed.get(1, TimeUnit.SECONDS);
+		assertEquals(List.of(BillValidatorEvent.Type.ACCEPTING, BillValidatorEvent.Type.ESCROW_POSITION, BillValidatorEvent.Type.BILL_STACKED),
+				collector.events.stream().map(BillValidatorEvent::type).toList());
+		assertEquals(BillValidatorEvent.NO_BILL, collector.events.get(0).billType());
+		assertEquals(5, collector.events.get(2).billType());
+		assertFalse(collector.events.get(2).timestamp().isBefore(collector.events.get(0).timestamp()));
+		assertEquals(List.of(1L, 2L, 3L), collector.events.stream().map(BillValidatorEvent::sequence).toList());
+	}
+
+	@Test
+	public void testPublish_dropsForSlowSubscriber() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			BillValidatorEventPublisher publisher = new BillValidatorEventPublisher(executor, 4, BackpressurePolicy.DROP);
+			CountDownLatch release = new CountDownLatch(1);
+			Collector slow = new Collector(Long.MAX_VALUE) {
+				@Override
+				public void onNext(BillValidatorEvent event) {
+					try {
+						release.await();
+					} catch (InterruptedException ignored) {
+					}
+					super.onNext(event);
+				}
+			};
+			publisher.subscribe(slow);
+
+			long startedAt = System.nanoTime();
+			for (int i = 0; i < 100; i++) {
+				publisher.publish(event(i + 1, BillValidatorEvent.Type.ACCEPTING, BillValidatorEvent.NO_BILL));
+			}
+			assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(1));
+			assertTrue(publisher.getDroppedCount() > 0);
+
+			release.countDown();
+			publisher.close();
+			slow.completed.get(1, TimeUnit.SECONDS);
+			assertEquals(100, slow.events.size() + publisher.getDroppedCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPublish_stackedBillWaitsForRoom() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			BillValidatorEventPublisher publisher = new BillValidatorEventPublisher(executor, 4, BackpressurePolicy.DROP);
+			CountDownLatch release = new CountDownLatch(1);
+			Collector slow = new Collector(Long.MAX_VALUE) {
+				@Override
+				public void onNext(BillValidatorEvent event) {
+					try {
+						release.await();
+					} catch (InterruptedException ignored) {
+					}
+					super.onNext(event);
+				}
+			};
+			publisher.subscribe(slow);
+
+			// waits for room in the full buffer rather than dropping a bill
+			CompletableFuture<Void> stacking = CompletableFuture.runAsync(() -> {
+				for (int i = 0; i < 20; i++) {
+					publisher.publish(event(2 * i + 1, BillValidatorEvent.Type.ACCEPTING, BillValidatorEvent.NO_BILL));
+					publisher.publish(event(2 * i + 2, BillValidatorEvent.Type.BILL_STACKED, i));
+				}
+			});
+			Thread.sleep(100);
+			assertFalse(stacking.isDone());
+
+			release.countDown();
+			stacking.get(1, TimeUnit.SECONDS);
+			publisher.close();
+			slow.completed.get(1, TimeUnit.SECONDS);
+			assertEquals(20, slow.events.stream().filter(event -> event.type() == BillValidatorEvent.Type.BILL_STACKED).count());
+			assertEquals(40, slow.events.size() + publisher.getDroppedCount());
+			assertEquals(0, publisher.getDroppedBillCount());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPublish_stalledSubscriberDropsBillsAfterTimeout() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		CountDownLatch release = new CountDownLatch(1);
+		try {
+			BillValidatorEventPublisher publisher = new BillValidatorEventPublisher(executor, 4, BackpressurePolicy.DROP);
+			publisher.setStackedTimeoutMs(20);
+			Collector stalled = new Collector(Long.MAX_VALUE) {
+				@Override
+				public void onNext(BillValidatorEvent event) {
+					try {
+						release.await();
+					} catch (InterruptedException ignored) {
+					}
+					super.onNext(event);
+				}
+			};
+			publisher.subscribe(stalled);
+
+			// the poll loop is held up for the timeout at most, not for as long as the subscriber stalls
+			long startedAt = System.nanoTime();
+			for (int i = 0; i < 10; i++) {
+				publisher.publish(event(i + 1, BillValidatorEvent.Type.BILL_STACKED, i));
+			}
+			assertTrue(System.nanoTime() - startedAt < TimeUnit.SECONDS.toNanos(2));
+			assertTrue(publisher.getDroppedBillCount() > 0);
+			assertEquals(publisher.getDroppedCount(), publisher.getDroppedBillCount());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testPublish_errors() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		CashCodeSM cashCode = device.cashCode();
+		cashCode.powerUp();
+
+		BillValidatorEventPublisher publisher = new BillValidatorEventPublisher();
+		cashCode.setEventPublisher(publisher);
+		Collector collector = new Collector(Long.MAX_VALUE);
+		publisher.subscribe(collector);
+
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		simulator.jam();
+		verify(eventListener, timeout(5000)).onError(BillValidatorError.VALIDATOR_JAMMED);
+		simulator.clearFault();
+		verify(eventListener, timeout(5000)).onError(BillValidatorError.NONE);
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+		publisher.close();
+		collector.completed.get(1, TimeUnit.SECONDS);
+
+		// raised, then cleared
+		List<BillValidatorEvent> errors = collector.events.stream().filter(event -> event.type() == BillValidatorEvent.Type.ERROR).toList();
+		assertEquals(List.of(BillValidatorError.VALIDATOR_JAMMED, BillValidatorError.NONE), errors.stream().map(BillValidatorEvent::error).toList());
+		assertEquals(BillValidatorEvent.NO_BILL, errors.get(0).billType());
+	}
+
+	@Test
+	public void testPublish_whilePolling() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		CashCodeSM cashCode = device.cashCode();
+		cashCode.powerUp();
+
+		BillValidatorEventPublisher publisher = new BillValidatorEventPublisher();
+		cashCode.setEventPublisher(publisher);
+		CountDownLatch stacked = new CountDownLatch(1);
+		Collector collector = new Collector(Long.MAX_VALUE) {
+			@Override
+			public void onNext(BillValidatorEvent event) {
+				super.onNext(event);
+				if (event.type() == BillValidatorEvent.Type.BILL_STACKED) {
+					stacked.countDown();
+				}
+			}
+		};
+		publisher.subscribe(collector);
+
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		simulator.insertBill(3);
+
+		assertTrue(stacked.await(5, TimeUnit.SECONDS));
+		verify(eventListener).onBillStack(3);
+		assertTrue(collector.events.stream().anyMatch(event -> event.type() == BillValidatorEvent.Type.ACCEPTING));
+		assertEquals(3, collector.events.get(collector.events.size() - 1).billType());
+		// numbered by the device
+		List<Long> sequences = collector.events.stream().map(BillValidatorEvent::sequence).toList();
+		assertEquals(cashCode.getEventSequence(), sequences.get(sequences.size() - 1));
+		for (int i = 1; i < sequences.size(); i++) {
+			assertEquals(sequences.get(i - 1) + 1, sequences.get(i));
+		}
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+		publisher.close();
+	}
+
+	private static BillValidatorEvent event(long sequence, BillValidatorEvent.Type type, int billType) {
+		return new BillValidatorEvent(sequence, Instant.now(), type, billType);
+	}
+
+	private static class Collector implements Flow.Subscriber<BillValidatorEvent> {
+		final List<BillValidatorEvent> events = new CopyOnWriteArrayList<>();
+		final CompletableFuture<Void> completed = new CompletableFuture<>();
+		private final long demand;
+
+		Collector(long demand) {
+			this.demand = demand;
+		}
+
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(demand);
+		}
+
+		@Override
+		public void onNext(BillValidatorEvent event) {
+			events.add(event);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			completed.completeExceptionally(throwable);
+		}
+
+		@Override
+		public void onComplete() {
+			completed.complete(null);
+		}
+	}
+}
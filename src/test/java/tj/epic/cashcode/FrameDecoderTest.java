@@ -0,0 +1,92 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FrameDecoderTest {
+	private final List<Frame> frames = new ArrayList<>();
+	private FrameDecoder decoder;
+
+	@BeforeEach
+	public void setup() {
+		frames.clear();
+		decoder = new FrameDecoder(frames::add);
+	}
+
+	@Test
+	public void testFeed_wholeFrame() {
+		decoder.feed(TestsHelper.frame(0x81, 0x02));
+
+		assertEquals(1, frames.size());
+		assertEquals(0x03, frames.get(0).getAddress());
+		assertEquals(0x81, frames.get(0).getStatus());
+		assertEquals(0x02, frames.get(0).getData(1));
+	}
+
+	@Test
+	public void testFeed_splitFrame() {
+		int[] frame = TestsHelper.frame(0x14);
+
+		decoder.feed(Arrays.copyOfRange(frame, 0, 2));
+		decoder.feed(Arrays.copyOfRange(frame, 2, 4));
+		assertTrue(frames.isEmpty());
+
+		decoder.feed(Arrays.copyOfRange(frame, 4, frame.length));
+		assertEquals(1, frames.size());
+		assertEquals(0x14, frames.get(0).getStatus());
+	}
+
+	@Test
+	public void testFeed_coalescedFrames() {
+		int[] first = TestsHelper.frame(0x15);
+		int[] second = TestsHelper.frame(0x17);
+		int[] both = Arrays.copyOf(first, first.length + second.length);
+		System.arraycopy(second, 0, both, first.length, second.length);
+
+		decoder.feed(both);
+
+		assertEquals(2, frames.size());
+		assertEquals(0x15, frames.get(0).getStatus());
+		assertEquals(0x17, frames.get(1).getStatus());
+	}
+
+	@Test
+	public void testFeed_garbageBeforeFrame() {
+		decoder.feed(new int[]{0x00, 0xFF, 0x13});
+		decoder.feed(TestsHelper.frame(0x19));
+
+		assertEquals(1, frames.size());
+		assertEquals(0x19, frames.get(0).getStatus());
+		assertEquals(3, decoder.getDiscardedBytes());
+	}
+
+	@Test
+	public void testFeed_badCrcResynchronises() {
+		int[] corrupted = TestsHelper.frame(0x81, 0x02);
+		corrupted[4] ^= 0x01;
+		int[] valid = TestsHelper.frame(0x14);
+		int[] both = Arrays.copyOf(corrupted, corrupted.length + valid.length);
+		System.arraycopy(valid, 0, both, corrupted.length, valid.length);
+
+		decoder.feed(both);
+
+		assertEquals(1, frames.size());
+		assertEquals(0x14, frames.get(0).getStatus());
+		assertEquals(1, decoder.getCrcErrors());
+	}
+
+	@Test
+	public void testFeed_invalidLengthResynchronises() {
+		decoder.feed(new int[]{0x02, 0x03, 0x01});
+		decoder.feed(TestsHelper.frame(0x14));
+
+		assertEquals(1, frames.size());
+		assertEquals(0x14, frames.get(0).getStatus());
+	}
+}
@@ -0,0 +1,46 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class FrameTracerTest {
+	@Test
+	public void testDump_exchange() throws Exception {
+		SerialPort serialPort = mock(SerialPort.class);
+		when(serialPort.writeBytes(any(byte[].class))).thenReturn(true);
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x14));
+
+		FrameTracer tracer = new FrameTracer();
+		CcnetLink link = new CcnetLink(0x03);
+		link.setSerialPort(serialPort);
+		link.setFrameTracer(tracer);
+
+		link.transceive(BillValidatorCommand.POLL, new int[0]);
+
+		String[] lines = tracer.dump().split(System.lineSeparator());
+		assertEquals(2, lines.length);
+		assertTrue(lines[0].matches("\\d{2}:\\d{2}:\\d{2}\\.\\d{6} TX 02 03 06 33( [0-9A-F]{2}){2}"), lines[0]);
+		assertTrue(lines[1].matches("\\d{2}:\\d{2}:\\d{2}\\.\\d{6} RX 02 03 06 14( [0-9A-F]{2}){2}"), lines[1]);
+	}
+
+	@Test
+	public void testDump_keepsLastRecords() {
+		FrameTracer tracer = new FrameTracer(2);
+		tracer.sent(new byte[]{0x01});
+		tracer.received(new int[]{0x02});
+		tracer.sent(new byte[]{(byte) 0xFF});
+		tracer.received(null);
+
+		assertEquals(2, tracer.size());
+		String[] lines = tracer.dump().split(System.lineSeparator());
+		assertTrue(lines[0].endsWith(" RX 02"));
+		assertTrue(lines[1].endsWith(" TX FF"));
+
+		tracer.clear();
+		assertEquals("", tracer.dump());
+	}
+}
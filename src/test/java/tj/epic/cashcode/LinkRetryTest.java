@@ -0,0 +1,161 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+public class LinkRetryTest {
+	private InMemoryTransport transport;
+	private BillValidatorSimulator simulator;
+	private DefaultCashCodeMetrics metrics;
+	private CcnetLink link;
+
+	@BeforeEach
+	public void setup() throws Exception {
+		setup(ReceiveMode.BLOCKING);
+	}
+
+	@Test
+	public void testRequest_lostReplyRetransmitted() throws Exception {
+		for (ReceiveMode receiveMode : ReceiveMode.values()) {
+			setup(receiveMode);
+			simulator.loseReplies(1);
+
+			Frame reply = link.request(BillValidatorCommand.POLL, new int[0]).get(1, TimeUnit.SECONDS);
+			assertEquals(BillValidatorSimulator.POWER_UP, reply.getStatus(), receiveMode.name());
+			assertEquals(2, simulator.getCommandCount(BillValidatorCommand.POLL), receiveMode.name());
+			assertEquals(1, metrics.getRetransmits(), receiveMode.name());
+			assertEquals(1, metrics.getTimeouts(), receiveMode.name());
+		}
+	}
+
+	@Test
+	public void testRequest_corruptedReplyRepeated() throws Exception {
+		for (ReceiveMode receiveMode : ReceiveMode.values()) {
+			setup(receiveMode);
+			simulator.corruptReplies(1);
+
+			Frame reply = link.request(BillValidatorCommand.POLL, new int[0]).get(1, TimeUnit.SECONDS);
+			assertEquals(BillValidatorSimulator.POWER_UP, reply.getStatus(), receiveMode.name());
+			// the device repeats its reply on NAK, the command is not sent again
+			assertEquals(1, simulator.getCommandCount(BillValidatorCommand.POLL), receiveMode.name());
+			assertEquals(1, simulator.getCommandCount(BillValidatorCommand.NAK), receiveMode.name());
+			assertEquals(1, metrics.getCrcErrors(), receiveMode.name());
+			assertEquals(0, metrics.getTimeouts(), receiveMode.name());
+		}
+	}
+
+	@Test
+	public void testRequest_retriesUsedUp() throws Exception {
+		for (ReceiveMode receiveMode : ReceiveMode.values()) {
+			setup(receiveMode);
+			simulator.loseReplies(3);
+
+			ExecutionException e = assertThrows(ExecutionException.class, () -> link.request(BillValidatorCommand.POLL, new int[0]).get(2, TimeUnit.SECONDS));
+			assertInstanceOf(TimeoutException.class, e.getCause(), receiveMode.name());
+			assertEquals(3, simulator.getCommandCount(BillValidatorCommand.POLL), receiveMode.name());
+			assertEquals(3, metrics.getTimeouts(), receiveMode.name());
+			assertEquals(2, metrics.getRetransmits(), receiveMode.name());
+		}
+	}
+
+	@Test
+	public void testTransceive_nakedCommandSentAgain() throws Exception {
+		SerialPort serialPort = mock(SerialPort.class);
+		when(serialPort.writeBytes(any(byte[].class))).thenReturn(true);
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0xFF), TestsHelper.frame(0x00));
+
+		CcnetLink link = new CcnetLink(0x03);
+		link.setSerialPort(serialPort);
+		link.setMetrics(metrics);
+
+		assertEquals(0x00, link.transceive(BillValidatorCommand.RESET, new int[0]).getStatus());
+		verify(serialPort, times(2)).writeBytes(any(byte[].class));
+		assertEquals(1, metrics.getNaks());
+		assertEquals(1, metrics.getRetransmits());
+	}
+
+	private void setup(ReceiveMode receiveMode) throws Exception {
+		transport = new InMemoryTransport();
+		simulator = TestsHelper.simulator(transport);
+		simulator.setInitializeMs(0);
+
+		metrics = new DefaultCashCodeMetrics();
+		link = new CcnetLink(0x03);
+		link.setTransport(transport);
+		link.setMetrics(metrics);
+		link.setReceiveMode(receiveMode);
+		link.open(SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+	}
+
+	@Test
+	public void testPolling_unresponsiveDeviceReset() throws Exception {
+		simulator.setInitializeMs(20);
+		link.close();
+
+		CashCodeSM cashCode = TestsHelper.connect(transport);
+		cashCode.setMetrics(metrics);
+		cashCode.setPollInterval(PollInterval.fixed(5));
+		cashCode.powerUp();
+
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+		// a single lost reply is retransmitted, only a POLL left unanswered by every retry resets the device
+		simulator.loseReplies(1);
+		while (metrics.getRetransmits() < 1) {
+			Thread.sleep(5);
+		}
+		assertEquals(0, metrics.getDeviceResets());
+
+		simulator.loseReplies(3);
+		while (metrics.getDeviceResets() < 1) {
+			Thread.sleep(5);
+		}
+
+		simulator.insertBill(2);
+		verify(eventListener, timeout(5000)).onBillStack(2);
+		assertTrue(polling.isActive());
+		assertEquals(1, metrics.getDeviceResets());
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testPolling_billStackedWhileUnresponsive() throws Exception {
+		simulator.setInitializeMs(20);
+		link.close();
+
+		CashCodeSM cashCode = TestsHelper.connect(transport);
+		cashCode.setMetrics(metrics);
+		cashCode.setPollInterval(PollInterval.fixed(5));
+		cashCode.powerUp();
+
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		// the device stops answering while stacking, the first POLL of the reset finds the bill stacked
+		doAnswer(invocation -> {
+			simulator.loseReplies(3);
+			return null;
+		}).when(eventListener).onStack();
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+		simulator.insertBill(2);
+		verify(eventListener, timeout(5000)).onBillStack(2);
+		assertEquals(1, metrics.getDeviceResets());
+		assertEquals(1, cashCode.getLedger().getCount());
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+		verify(eventListener, times(1)).onBillStack(2);
+	}
+}
@@ -0,0 +1,55 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PacketEncoderTest {
+	private final PacketEncoder encoder = new PacketEncoder(0x03);
+
+	@Test
+	public void testEncode_constantFrames() {
+		assertArrayEquals(bytes(0x02, 0x03, 0x06, 0x33, 0xDA, 0x81), encoder.encode(BillValidatorCommand.POLL));
+		assertArrayEquals(bytes(0x02, 0x03, 0x06, 0x00, 0xC2, 0x82), encoder.encode(BillValidatorCommand.ACK));
+		assertArrayEquals(bytes(0x02, 0x03, 0x06, 0x30, 0x41, 0xB3), encoder.encode(BillValidatorCommand.RESET));
+		assertSame(encoder.encode(BillValidatorCommand.POLL), encoder.encode(BillValidatorCommand.POLL));
+	}
+
+	@Test
+	public void testEncode_reusesBuffer() {
+		byte[] first = encoder.encode(BillValidatorCommand.ENABLE_BILL_TYPES, new int[]{255, 255, 255, 0, 0, 0});
+		byte[] second = encoder.encode(BillValidatorCommand.ENABLE_BILL_TYPES, new int[]{0, 0, 0, 0, 0, 0});
+		assertSame(first, second);
+	}
+
+	@Test
+	public void testEncode_decodesBack() {
+		List<Frame> frames = new ArrayList<>();
+		FrameDecoder decoder = new FrameDecoder(frames::add);
+
+		byte[] frame = encoder.encode(BillValidatorCommand.SET_SECURITY, new int[]{0x12, 0x00, 0xFF});
+		decoder.feed(frame, 0, frame.length);
+
+		assertEquals(1, frames.size());
+		assertArrayEquals(new int[]{0x32, 0x12, 0x00, 0xFF}, frames.get(0).getData());
+	}
+
+	@Test
+	public void testCrc16_matchesBitwise() {
+		int[] data = {0x02, 0x03, 0x0C, 0x34, 0xFF, 0xFF, 0xFF, 0x00, 0x00, 0x00};
+		int[] frame = TestsHelper.frame(0x34, 0xFF, 0xFF, 0xFF, 0x00, 0x00, 0x00);
+		int crc = frame[frame.length - 2] | (frame[frame.length - 1] << 8);
+		assertEquals(crc, Crc16.compute(data, 0, data.length));
+	}
+
+	private static byte[] bytes(int... values) {
+		byte[] result = new byte[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = (byte) values[i];
+		}
+		return result;
+	}
+}
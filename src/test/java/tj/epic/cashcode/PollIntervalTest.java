@@ -0,0 +1,64 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PollIntervalTest {
+	@Test
+	public void testUpdate_fastWhileProcessingBill() {
+		PollInterval pollInterval = new PollInterval(10, 400, 3);
+		assertEquals(CashCodeSM.POLL_INTERVAL_MS, pollInterval.getIntervalMs());
+
+		pollInterval.update(0x15);
+		assertEquals(10, pollInterval.getIntervalMs());
+		pollInterval.update(0x80);
+		assertEquals(10, pollInterval.getIntervalMs());
+		pollInterval.update(0x81);
+		assertEquals(10, pollInterval.getIntervalMs());
+
+		pollInterval.update(0x14);
+		assertEquals(CashCodeSM.POLL_INTERVAL_MS, pollInterval.getIntervalMs());
+	}
+
+	@Test
+	public void testUpdate_backsOffWhileIdle() {
+		PollInterval pollInterval = new PollInterval(10, 400, 3);
+		for (int i = 0; i < 3; i++) {
+			pollInterval.update(0x14);
+			assertEquals(50, pollInterval.getIntervalMs());
+		}
+
+		pollInterval.update(0x14);
+		assertEquals(100, pollInterval.getIntervalMs());
+		pollInterval.update(-1);
+		assertEquals(200, pollInterval.getIntervalMs());
+		pollInterval.update(0x19);
+		assertEquals(400, pollInterval.getIntervalMs());
+		pollInterval.update(0x14);
+		assertEquals(400, pollInterval.getIntervalMs());
+
+		// a bill brings the interval straight down, an error back to the base
+		pollInterval.update(0x15);
+		assertEquals(10, pollInterval.getIntervalMs());
+		pollInterval.update(0x43);
+		assertEquals(50, pollInterval.getIntervalMs());
+	}
+
+	@Test
+	public void testFixed() {
+		PollInterval pollInterval = PollInterval.fixed(100);
+		pollInterval.update(0x15);
+		assertEquals(100, pollInterval.getIntervalMs());
+		for (int i = 0; i < 50; i++) {
+			pollInterval.update(0x14);
+		}
+		assertEquals(100, pollInterval.getIntervalMs());
+	}
+
+	@Test
+	public void testInvalidBounds() {
+		assertThrows(IllegalArgumentException.class, () -> new PollInterval(0, 100));
+		assertThrows(IllegalArgumentException.class, () -> new PollInterval(100, 50));
+	}
+}
@@ -0,0 +1,67 @@
+package tj.epic.cashcode;
+
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class PollStatusTest {
+
+	@Test
+	public void testOf_everyCode() {
+		for (int code = 0; code < 256; code++) {
+			PollStatus status = PollStatus.of(code);
+			assertTrue(status == PollStatus.OTHER || status.getCode() == code, "0x%02X".formatted(code));
+		}
+		assertEquals(PollStatus.HOLDING, PollStatus.of(0x1A));
+		assertEquals(PollStatus.UNIT_DISABLED, PollStatus.of(0x19));
+		assertEquals(PollStatus.OTHER, PollStatus.of(0x00));
+		assertEquals(PollStatus.OTHER, PollStatus.of(0x16));
+		assertTrue(PollStatus.POWER_UP_WITH_BILL_IN_STACKER.isPowerUp());
+		assertTrue(PollStatus.HOLDING.isEscrow());
+		assertFalse(PollStatus.IDLING.isError());
+	}
+
+	@Test
+	public void testErrorOf() {
+		assertEquals(BillValidatorError.NONE, PollStatus.errorOf(new Frame(0x03, new int[]{0x14})));
+		assertEquals(BillValidatorError.NONE, PollStatus.errorOf(new Frame(0x03, new int[]{0x00})));
+		assertEquals(BillValidatorError.VALIDATOR_JAMMED, PollStatus.errorOf(new Frame(0x03, new int[]{0x43})));
+		assertEquals(BillValidatorError.ILLEGAL_COMMAND, PollStatus.errorOf(new Frame(0x03, new int[]{0x30})));
+		assertEquals(BillValidatorError.MAGNETIC_CANAL_FAILURE, PollStatus.errorOf(new Frame(0x03, new int[]{0x47, 0x56})));
+		assertEquals(BillValidatorError.GENERIC_FAILURE, PollStatus.errorOf(new Frame(0x03, new int[]{0x47, 0x70})));
+		assertEquals(BillValidatorError.GENERIC_FAILURE, PollStatus.errorOf(new Frame(0x03, new int[]{0x47})));
+		assertEquals(BillValidatorError.GENERIC_FAILURE, PollStatus.errorOf(null));
+	}
+
+	@Test
+	public void testPolling_reportsErrorOnce() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		BillValidatorSimulator simulator = device.simulator();
+		CashCodeSM cashCode = device.cashCode();
+		cashCode.setPollInterval(PollInterval.fixed(5));
+		cashCode.powerUp();
+
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+		simulator.fault(0x47, 0x50);
+		verify(eventListener, timeout(5000)).onError(BillValidatorError.STACK_MOTOR_FAILURE);
+		long polled = simulator.getCommandCount(BillValidatorCommand.POLL);
+		while (simulator.getCommandCount(BillValidatorCommand.POLL) < polled + 5) {
+			Thread.sleep(5);
+		}
+		assertEquals(BillValidatorError.STACK_MOTOR_FAILURE, cashCode.getError());
+
+		simulator.clearFault();
+		verify(eventListener, timeout(5000)).onError(BillValidatorError.NONE);
+		assertEquals(BillValidatorError.NONE, cashCode.getError());
+		verify(eventListener, times(1)).onError(BillValidatorError.STACK_MOTOR_FAILURE);
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+	}
+}
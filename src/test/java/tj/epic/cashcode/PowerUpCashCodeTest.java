@@ -15,6 +15,9 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
 public final class PowerUpCashCodeTest {
+	// GET_STATUS reply: enabled and security bill type masks
+	private static final int[] BILL_TYPES_STATUS = TestsHelper.frame(0x00, 0x00, 0x00, 0x00, 0x00, 0x00);
+
 	@Mock
 	private SerialPort serialPort;
 
@@ -29,50 +32,94 @@ public final class PowerUpCashCodeTest {
 
 	@Test
 	public void testPowerUp() throws Exception {
-		when(serialPort.readIntArray()).thenReturn(new int[]{0x00, 0x00, 0x00, 0x00});
-		when(serialPort.writeIntArray(any(int[].class))).thenReturn(true);
+		when(serialPort.readIntArray()).thenReturn(
+				TestsHelper.frame(0x00),
+				TestsHelper.frame(0x00),
+				TestsHelper.frame(0x00),
+				TestsHelper.frame(0x00),
+				BILL_TYPES_STATUS,
+				TestsHelper.frame(0x00)
+		);
+		when(serialPort.writeBytes(any(byte[].class))).thenReturn(true);
 
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isBillEnabled", false);
-		TestsHelper.changePrivateFieldValue(cashCode, "isPoweredUp", false);
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(false);
+		cashCode.setPoweredUp(false);
 
 		cashCode.powerUp();
 
-		verify(serialPort, times(10)).writeIntArray(any(int[].class));
-		verify(serialPort, times(4)).readIntArray();
+		verify(serialPort, times(13)).writeBytes(any(byte[].class));
+		verify(serialPort, times(8)).readIntArray();
 
-		assertTrue((boolean)TestsHelper.getPrivateFieldValue(cashCode, "isBillEnabled"));
-		assertTrue((boolean)TestsHelper.getPrivateFieldValue(cashCode, "isPoweredUp"));
+		assertTrue(cashCode.isBillEnabled());
+		assertTrue(cashCode.isPoweredUp());
 	}
 
 	@Test
 	public void testPowerUp_PortNotConnectedException() {
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", false);
+		cashCode.setConnected(false);
 		assertThrows(PortNotConnectedException.class, () -> cashCode.powerUp());
 	}
 
 	@Test
 	public void testPowerUp_PowerUpException() throws Exception {
-		when(serialPort.readIntArray()).thenReturn(new int[]{0x30});
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x30));
 
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", true);
+		cashCode.setConnected(true);
 
 		assertThrows(PowerUpException.class, () -> cashCode.powerUp());
-		verify(serialPort, times(2)).writeIntArray(any(int[].class));
+		verify(serialPort, times(2)).writeBytes(any(byte[].class));
 		verify(serialPort, times(1)).readIntArray();
 	}
 
 	@Test
 	public void testPowerUp_SecurityModeException() throws Exception {
 		when(serialPort.readIntArray()).thenReturn(
-				new int[]{0x00, 0x00, 0x00, 0x00},
-				new int[]{0x00, 0x00, 0x00, 0x00},
-				new int[]{0x00, 0x00, 0x00, 0x47, 0x50}
+				TestsHelper.frame(0x00),
+				TestsHelper.frame(0x00),
+				TestsHelper.frame(0x00),
+				TestsHelper.frame(0x00),
+				BILL_TYPES_STATUS,
+				TestsHelper.frame(0x47, 0x50)
 		);
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", true);
+		cashCode.setConnected(true);
 
 		assertThrows(SecurityModeException.class, () -> cashCode.powerUp());
-		verify(serialPort, times(7)).writeIntArray(any(int[].class));
-		verify(serialPort, times(3)).readIntArray();
+		verify(serialPort, times(10)).writeBytes(any(byte[].class));
+		verify(serialPort, times(6)).readIntArray();
+	}
+
+	@Test
+	public void testPowerUp_waitsForInitialization() throws Exception {
+		when(serialPort.readIntArray()).thenReturn(
+				TestsHelper.frame(0x10),
+				TestsHelper.frame(0x00),
+				TestsHelper.frame(0x13),
+				TestsHelper.frame(0x13),
+				TestsHelper.frame(0x19),
+				TestsHelper.frame(0x00),
+				BILL_TYPES_STATUS,
+				TestsHelper.frame(0x00)
+		);
+		when(serialPort.writeBytes(any(byte[].class))).thenReturn(true);
+		cashCode.setConnected(true);
+
+		cashCode.powerUp();
+
+		verify(serialPort, times(10)).readIntArray();
+		assertTrue(cashCode.isPoweredUp());
+	}
+
+	@Test
+	public void testPowerUp_skipsResetWhenInitialized() throws Exception {
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x19), TestsHelper.frame(0x00), BILL_TYPES_STATUS, TestsHelper.frame(0x00));
+		when(serialPort.writeBytes(any(byte[].class))).thenReturn(true);
+		cashCode.setConnected(true);
+
+		cashCode.powerUp();
+
+		verify(serialPort, times(10)).writeBytes(any(byte[].class));
+		verify(serialPort, times(6)).readIntArray();
+		assertTrue(cashCode.isPoweredUp());
 	}
 }
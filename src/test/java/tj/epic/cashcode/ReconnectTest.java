@@ -0,0 +1,144 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.exceptions.GeneralCashCodeException;
+import tj.epic.cashcode.exceptions.PortException;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ReconnectTest {
+	private InMemoryTransport transport;
+	private BillValidatorSimulator simulator;
+	private CashCodeSM cashCode;
+	private DefaultCashCodeMetrics metrics;
+
+	@BeforeEach
+	public void setup() throws Exception {
+		TestsHelper.SimulatedDevice device = TestsHelper.simulatedDevice();
+		transport = device.transport();
+		simulator = device.simulator();
+		cashCode = device.cashCode();
+
+		metrics = new DefaultCashCodeMetrics();
+		cashCode.setMetrics(metrics);
+		cashCode.powerUp();
+	}
+
+	@Test
+	public void testReconnectPolicy_backoff() {
+		ReconnectPolicy policy = new ReconnectPolicy(100, 1000, 5);
+		assertEquals(100, policy.getDelayMs(1));
+		assertEquals(200, policy.getDelayMs(2));
+		assertEquals(800, policy.getDelayMs(4));
+		assertEquals(1000, policy.getDelayMs(5));
+		assertEquals(1000, policy.getDelayMs(100));
+		assertTrue(policy.canRetry(4));
+		assertFalse(policy.canRetry(5));
+		assertTrue(new ReconnectPolicy().canRetry(1000));
+		assertThrows(IllegalArgumentException.class, () -> new ReconnectPolicy(0, 1000, 0));
+	}
+
+	@Test
+	public void testSupervisedPolling_resumesAfterUnplug() throws Exception {
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		PollingHandle polling = cashCode.startSupervisedPolling(eventListener, new ReconnectPolicy(20, 100, 0));
+
+		simulator.insertBill(3);
+		verify(eventListener, timeout(5000)).onBillStack(3);
+
+		transport.unplug();
+		waitFor(() -> metrics.getDisconnects() == 1);
+		assertFalse(cashCode.isConnected());
+		assertTrue(polling.isActive());
+
+		transport.plug();
+		waitFor(() -> metrics.getReconnects() == 1);
+
+		simulator.insertBill(5);
+		verify(eventListener, timeout(5000)).onBillStack(5);
+		assertTrue(cashCode.isConnected());
+
+		// the ledger of the session survived the reconnect
+		assertEquals(List.of(3, 5), cashCode.getInsertedBanknotes());
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+	}
+
+	@Test
+	public void testSupervisedPolling_billStackedWhileUnplugged() throws Exception {
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		// the port drops before STACKING is ACKed, the device reports the stacked bill to the power up of the reconnect
+		doAnswer(invocation -> {
+			transport.unplug();
+			return null;
+		}).when(eventListener).onStack();
+		PollingHandle polling = cashCode.startSupervisedPolling(eventListener, new ReconnectPolicy(20, 100, 0));
+
+		simulator.insertBill(3);
+		waitFor(() -> metrics.getDisconnects() == 1);
+		transport.plug();
+		waitFor(() -> metrics.getReconnects() == 1);
+
+		verify(eventListener, timeout(5000)).onBillStack(3);
+		assertEquals(List.of(3), cashCode.getInsertedBanknotes());
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(1, TimeUnit.SECONDS);
+		verify(eventListener, times(1)).onBillStack(3);
+	}
+
+	@Test
+	public void testSupervisedPolling_givesUp() throws Exception {
+		PollingHandle polling = cashCode.startSupervisedPolling(mock(CashCodeEvents.class), new ReconnectPolicy(10, 20, 3));
+		transport.unplug();
+
+		CompletableFuture<Void> completion = polling.completion().toCompletableFuture();
+		ExecutionException e = assertThrows(ExecutionException.class, () -> completion.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(PortException.class, e.getCause());
+		assertFalse(cashCode.isConnected());
+		assertFalse(transport.isOpened());
+		assertEquals(0, metrics.getReconnects());
+	}
+
+	@Test
+	public void testStartPolling_portFailureClosesPort() {
+		transport.unplug();
+		assertThrows(GeneralCashCodeException.class, () -> cashCode.startPolling(mock(CashCodeEvents.class)));
+		assertFalse(cashCode.isConnected());
+		assertFalse(cashCode.isPoweredUp());
+		assertEquals(1, metrics.getDisconnects());
+	}
+
+	@Test
+	public void testClose_deadPortStillClosed() throws Exception {
+		InMemoryTransport deadPort = spy(new InMemoryTransport());
+		CcnetLink link = new CcnetLink(0x03);
+		link.setTransport(deadPort);
+		link.setReceiveMode(ReceiveMode.EVENT_DRIVEN);
+		link.open(SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+
+		doThrow(new SerialPortException("memory", "removeEventListener", "Port dead")).when(deadPort).setReceiver(null);
+		assertThrows(SerialPortException.class, link::close);
+		assertFalse(deadPort.isOpened());
+	}
+
+	private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.getAsBoolean()) {
+			assertTrue(System.nanoTime() < deadline, "Timed out");
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SocketTransportTest {
+	private ServerSocket server;
+	private BillValidatorSimulator simulator;
+
+	/**
+	 * Serves a simulator over TCP, as a serial device server would serve a real validator.
+	 */
+	@BeforeEach
+	public void setup() throws Exception {
+		server = new ServerSocket(0);
+		simulator = new BillValidatorSimulator();
+		simulator.setInitializeMs(50);
+
+		Thread thread = new Thread(() -> {
+			try (Socket socket = server.accept()) {
+				InMemoryTransport line = new InMemoryTransport();
+				simulator.connect(line);
+				line.open(SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+
+				OutputStream output = socket.getOutputStream();
+				line.setReceiver(new Transport.Receiver() {
+					@Override
+					public void onData(int[] data) {
+						try {
+							for (int b : data) {
+								output.write(b);
+							}
+							output.flush();
+						} catch (Exception ignored) {
+						}
+					}
+
+					@Override
+					public void onError(SerialPortException e) {
+					}
+				});
+
+				InputStream input = socket.getInputStream();
+				byte[] buffer = new byte[256];
+				int count;
+				while ((count = input.read(buffer)) > 0) {
+					byte[] chunk = new byte[count];
+					System.arraycopy(buffer, 0, chunk, 0, count);
+					line.write(chunk);
+				}
+			} catch (Exception ignored) {
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	@Test
+	public void testPowerUp_overSocket() throws Exception {
+		SocketTransport transport = new SocketTransport("localhost", server.getLocalPort());
+		CashCodeSM cashCode = new CashCodeSM();
+		cashCode.setTransport(transport);
+
+		cashCode.init(transport.getName(), SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		cashCode.powerUp();
+
+		assertTrue(cashCode.isPoweredUp());
+		assertEquals(BillValidatorSimulator.IDLING, simulator.getStatus());
+
+		cashCode.disconnect();
+		assertFalse(transport.isOpened());
+	}
+}
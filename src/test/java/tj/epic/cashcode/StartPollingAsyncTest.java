@@ -0,0 +1,98 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import jssc.SerialPortException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import tj.epic.cashcode.exceptions.GeneralCashCodeException;
+import tj.epic.cashcode.exceptions.InvalidCashCodeStateException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class StartPollingAsyncTest {
+	@Mock
+	private SerialPort serialPort;
+
+	@Mock
+	private CashCodeEvents eventListener;
+
+	private CashCodeSM cashCode;
+
+	@BeforeEach
+	public void setup() {
+		MockitoAnnotations.openMocks(this);
+		cashCode = new CashCodeSM();
+		cashCode.setSerialPort(serialPort);
+	}
+
+	@Test
+	public void testStartPollingAsync_onBillStack() throws Exception {
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
+
+		CountDownLatch onBillStackLatch = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			onBillStackLatch.countDown();
+			return null;
+		}).when(eventListener).onBillStack(0x50);
+
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x81, 0x50), TestsHelper.frame(0x00));
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		assertTrue(onBillStackLatch.await(5, TimeUnit.SECONDS));
+		assertTrue(polling.isActive());
+
+		cashCode.stopPollingAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		assertFalse(polling.isActive());
+		assertEquals(1, cashCode.getInsertedBanknotes().size());
+	}
+
+	@Test
+	public void testStartPollingAsync_cancel() throws Exception {
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
+
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x14));
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		polling.cancel();
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		assertFalse(polling.isActive());
+	}
+
+	@Test
+	public void testStartPollingAsync_InvalidCashCodeStateException() {
+		cashCode.setConnected(false);
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> polling.completion().toCompletableFuture().get());
+		assertInstanceOf(InvalidCashCodeStateException.class, e.getCause());
+	}
+
+	@Test
+	public void testStartPollingAsync_GeneralCashCodeException() throws Exception {
+		when(serialPort.writeBytes(any())).thenThrow(SerialPortException.class);
+
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS));
+		assertInstanceOf(GeneralCashCodeException.class, e.getCause());
+	}
+}
@@ -33,16 +33,18 @@ public class StartPollingTest {
 
 	@Test
 	public void testStartPolling_cassetteInitialize() throws Exception {
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isBillEnabled", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isPoweredUp", true);
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
 
-		CountDownLatch latch = new CountDownLatch(1);
+		CountDownLatch cassetteInitializeLatch = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			cassetteInitializeLatch.countDown();
+			return null;
+		}).when(eventListener).onCassetteInitialize();
 
-		when(serialPort.readIntArray()).thenAnswer(invocation -> {
-			latch.countDown();
-			return new int[]{0x00, 0x00, 0x00, 0x13};
-		});
+		// the event is reported once, after that the device answers with plain ACKs
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x13), TestsHelper.frame(0x00));
 
 		Thread pollingThread = new Thread(() -> {
 			try {
@@ -53,20 +55,12 @@ public class StartPollingTest {
 		});
 		pollingThread.start();
 
-		latch.await();
-
-		CountDownLatch cassetteInitializeLatch = new CountDownLatch(1);
-		doAnswer(invocation -> {
-			cassetteInitializeLatch.countDown();
-			return null;
-		}).when(eventListener).onCassetteInitialize();
 		cassetteInitializeLatch.await();
 
 		verify(eventListener).onCassetteInitialize();
-		verify(serialPort, atLeastOnce()).writeIntArray(any(int[].class));
+		verify(serialPort, atLeastOnce()).writeBytes(any(byte[].class));
 		verify(serialPort, atLeastOnce()).readIntArray();
 
-		when(serialPort.readIntArray()).thenReturn(new int[]{0x00, 0x00, 0x00, 0x00});
 		cashCode.stopPolling();
 
 		pollingThread.join();
@@ -74,16 +68,17 @@ public class StartPollingTest {
 
 	@Test
 	public void testStartPolling_onBillStack() throws Exception {
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isBillEnabled", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isPoweredUp", true);
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
 
-		CountDownLatch latch = new CountDownLatch(1);
+		CountDownLatch onBillStackLatch = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			onBillStackLatch.countDown();
+			return null;
+		}).when(eventListener).onBillStack(0x50);
 
-		when(serialPort.readIntArray()).thenAnswer(invocation -> {
-			latch.countDown();
-			return new int[]{0x00, 0x00, 0x00, 0x81, 0x50};
-		});
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x81, 0x50), TestsHelper.frame(0x00));
 
 		Thread pollingThread = new Thread(() -> {
 			try {
@@ -94,20 +89,12 @@ public class StartPollingTest {
 		});
 		pollingThread.start();
 
-		latch.await();
-
-		CountDownLatch onBillStackLatch = new CountDownLatch(1);
-		doAnswer(invocation -> {
-			onBillStackLatch.countDown();
-			return null;
-		}).when(eventListener).onBillStack(0x50);
 		onBillStackLatch.await();
 
 		verify(eventListener).onBillStack(0x50);
-		verify(serialPort, atLeastOnce()).writeIntArray(any(int[].class));
+		verify(serialPort, atLeastOnce()).writeBytes(any(byte[].class));
 		verify(serialPort, atLeastOnce()).readIntArray();
 
-		when(serialPort.readIntArray()).thenReturn(new int[]{0x00, 0x00, 0x00, 0x00});
 		cashCode.stopPolling();
 
 		pollingThread.join();
@@ -119,23 +106,38 @@ public class StartPollingTest {
 
 	@Test
 	public void testStartPolling_InvalidCashCodeStateException() {
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", false);
-		TestsHelper.changePrivateFieldValue(cashCode, "isBillEnabled", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isPoweredUp", true);
+		cashCode.setConnected(false);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
 
 		assertThrows(InvalidCashCodeStateException.class, () -> cashCode.startPolling(eventListener));
 	}
 
+	@Test
+	public void testStartPolling_alreadyPolling() throws Exception {
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
+
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x14));
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		assertThrows(InvalidCashCodeStateException.class, () -> cashCode.startPolling(eventListener));
+
+		polling.cancel();
+		polling.completion().toCompletableFuture().join();
+	}
+
 	@Test
 	public void testStartPolling_GeneralCashCodeException() throws Exception {
-		when(serialPort.writeIntArray(any())).thenThrow(SerialPortException.class);
+		when(serialPort.writeBytes(any())).thenThrow(SerialPortException.class);
 
-		TestsHelper.changePrivateFieldValue(cashCode, "isConnected", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isBillEnabled", true);
-		TestsHelper.changePrivateFieldValue(cashCode, "isPoweredUp", true);
+		cashCode.setConnected(true);
+		cashCode.setBillEnabled(true);
+		cashCode.setPoweredUp(true);
 
 		assertThrows(GeneralCashCodeException.class, () -> cashCode.startPolling(eventListener));
-		verify(serialPort, times(1)).writeIntArray(any(int[].class));
+		verify(serialPort, times(1)).writeBytes(any(byte[].class));
 		verify(serialPort, times(0)).readIntArray();
 	}
 }
@@ -23,9 +23,9 @@ public class StopPollingTest {
 
 	@Test
 	public void testStopPolling() throws Exception {
-		TestsHelper.changePrivateFieldValue(cashCode, "isBillEnabled", true);
+		cashCode.setBillEnabled(true);
 
-		when(serialPort.readIntArray()).thenReturn(new int[]{0x00, 0x00, 0x00, 0x00});
+		when(serialPort.readIntArray()).thenReturn(TestsHelper.frame(0x00));
 
 		cashCode.stopPolling();
 		verify(serialPort).readIntArray();
@@ -0,0 +1,48 @@
+package tj.epic.cashcode;
+
+import jssc.SerialPort;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamTransportTest {
+
+	@Test
+	public void testClose_stopsReader() throws Exception {
+		PipeTransport transport = new PipeTransport();
+		for (int i = 0; i < 3; i++) {
+			transport.open(SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+			transport.close();
+		}
+
+		// a pipe read notices the close only after a second, the reader is interrupted instead of left behind
+		List<Thread> readers = Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().equals("cashcode-reader-pipe"))
+				.toList();
+		assertEquals(List.of(), readers);
+	}
+
+	private static final class PipeTransport extends StreamTransport {
+		private PipedInputStream input;
+
+		private PipeTransport() {
+			super("pipe");
+		}
+
+		@Override
+		Streams connect() throws IOException {
+			input = new PipedInputStream();
+			return new Streams(input, new PipedOutputStream(input));
+		}
+
+		@Override
+		void disconnect() throws IOException {
+			input.close();
+		}
+	}
+}
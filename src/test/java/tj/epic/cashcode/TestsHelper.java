@@ -1,5 +1,9 @@
 package tj.epic.cashcode;
 
+import jssc.SerialPort;
+import tj.epic.cashcode.exceptions.CashCodeException;
+import tj.epic.cashcode.simulator.BillValidatorSimulator;
+
 import java.lang.reflect.Field;
 
 public class TestsHelper {
@@ -16,4 +20,66 @@ public class TestsHelper {
 		field.setAccessible(true);
 		return field.get(target);
 	}
+
+	/**
+	 * Builds a device reply frame (SYNC, bill validator address, length, data, CRC16) as the port would return it.
+	 */
+	public static int[] frame(int... data) {
+		return frameFrom(0x03, data);
+	}
+
+	/**
+	 * Builds a reply frame from the peripheral at the given address.
+	 */
+	public static int[] frameFrom(int address, int... data) {
+		int length = data.length + 5;
+		int[] frame = new int[length];
+		frame[0] = 0x02;
+		frame[1] = address;
+		frame[2] = length;
+		System.arraycopy(data, 0, frame, 3, data.length);
+
+		int crc = 0;
+		for (int i = 0; i < length - 2; i++) {
+			crc ^= frame[i];
+			for (int j = 0; j < 8; j++) {
+				crc = (crc & 0x0001) != 0 ? (crc >> 1) ^ 0x8408 : crc >> 1;
+			}
+		}
+		frame[length - 2] = crc & 0xFF;
+		frame[length - 1] = (crc >> 8) & 0xFF;
+		return frame;
+	}
+
+	/**
+	 * Bill validator simulator on an in-memory transport, with an initialized state machine connected to it.
+	 */
+	public record SimulatedDevice(InMemoryTransport transport, BillValidatorSimulator simulator, CashCodeSM cashCode) {}
+
+	public static SimulatedDevice simulatedDevice() throws CashCodeException {
+		InMemoryTransport transport = new InMemoryTransport();
+		BillValidatorSimulator simulator = simulator(transport);
+		return new SimulatedDevice(transport, simulator, connect(transport));
+	}
+
+	/**
+	 * Connects a simulator to the transport, with short initializing and bill step durations.
+	 */
+	public static BillValidatorSimulator simulator(InMemoryTransport transport) {
+		BillValidatorSimulator simulator = new BillValidatorSimulator();
+		simulator.setInitializeMs(20);
+		simulator.setStepDurationMs(20);
+		simulator.connect(transport);
+		return simulator;
+	}
+
+	/**
+	 * Initializes a new state machine on the transport, the device is not powered up.
+	 */
+	public static CashCodeSM connect(InMemoryTransport transport) throws CashCodeException {
+		CashCodeSM cashCode = new CashCodeSM();
+		cashCode.setTransport(transport);
+		cashCode.init("memory", SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		return cashCode;
+	}
 }
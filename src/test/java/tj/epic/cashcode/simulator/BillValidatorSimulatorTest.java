@@ -0,0 +1,133 @@
+package tj.epic.cashcode.simulator;
+
+import jssc.SerialPort;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import tj.epic.cashcode.BillValidatorError;
+import tj.epic.cashcode.CashCodeEvents;
+import tj.epic.cashcode.CashCodeManager;
+import tj.epic.cashcode.CashCodeSM;
+import tj.epic.cashcode.InMemoryTransport;
+import tj.epic.cashcode.PollingHandle;
+import tj.epic.cashcode.ReceiveMode;
+import tj.epic.cashcode.exceptions.PowerUpException;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class BillValidatorSimulatorTest {
+	private InMemoryTransport transport;
+	private BillValidatorSimulator simulator;
+	private CashCodeSM cashCode;
+
+	@BeforeEach
+	public void setup() {
+		transport = new InMemoryTransport();
+		simulator = simulator();
+		simulator.connect(transport);
+
+		cashCode = new CashCodeSM();
+		cashCode.setTransport(transport);
+	}
+
+	@Test
+	public void testPowerUp_initializesAfterReset() throws Exception {
+		cashCode.init("memory", SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		assertEquals(BillValidatorSimulator.POWER_UP, simulator.getStatus());
+
+		cashCode.powerUp();
+
+		assertEquals(BillValidatorSimulator.IDLING, simulator.getStatus());
+		assertEquals(BillValidatorError.NONE, cashCode.getError());
+	}
+
+	@Test
+	public void testPowerUp_jammed() throws Exception {
+		simulator.jam();
+		cashCode.init("memory", SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+
+		assertThrows(PowerUpException.class, () -> cashCode.powerUp());
+		assertEquals(BillValidatorError.VALIDATOR_JAMMED, cashCode.getError());
+	}
+
+	@Test
+	public void testPolling_billSequences() throws Exception {
+		cashCode.setReceiveMode(ReceiveMode.EVENT_DRIVEN);
+		cashCode.init("memory", SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+		cashCode.powerUp();
+
+		CountDownLatch done = new CountDownLatch(1);
+		CashCodeEvents eventListener = mock(CashCodeEvents.class);
+		doAnswer(invocation -> {
+			done.countDown();
+			return null;
+		}).when(eventListener).onBillReturned();
+
+		simulator.insertBill(2);
+		simulator.rejectBill(0x60);
+		simulator.insertBill(5);
+		simulator.returnBill(3);
+
+		PollingHandle polling = cashCode.startPollingAsync(eventListener);
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		cashCode.stopPollingAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+		polling.completion().toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+		verify(eventListener).onBillStack(2);
+		verify(eventListener).onBillStack(5);
+		verify(eventListener, atLeastOnce()).onReject();
+		verify(eventListener, atLeastOnce()).onReturn();
+		assertEquals(2, cashCode.getLedger().getCount());
+		assertTrue(simulator.isScriptDone());
+		assertEquals(BillValidatorSimulator.UNIT_DISABLED, simulator.getStatus());
+	}
+
+	@Test
+	public void testManager_manyDevices() throws Exception {
+		int devices = 16;
+		int billsPerDevice = 5;
+		CountDownLatch stacked = new CountDownLatch(devices * billsPerDevice);
+
+		try (CashCodeManager manager = new CashCodeManager(2)) {
+			for (int i = 0; i < devices; i++) {
+				InMemoryTransport line = new InMemoryTransport("memory-" + i);
+				BillValidatorSimulator device = simulator();
+				device.connect(line);
+				for (int bill = 0; bill < billsPerDevice; bill++) {
+					device.insertBill(bill);
+				}
+
+				CashCodeSM cashCode = new CashCodeSM();
+				cashCode.setTransport(line);
+				cashCode.init(line.getName(), SerialPort.BAUDRATE_9600, SerialPort.DATABITS_8, SerialPort.STOPBITS_1, SerialPort.PARITY_NONE);
+
+				String deviceId = "device-" + i;
+				manager.register(deviceId, cashCode);
+				CashCodeEvents eventListener = mock(CashCodeEvents.class);
+				doAnswer(invocation -> {
+					stacked.countDown();
+					return null;
+				}).when(eventListener).onBillStack(anyInt());
+				manager.addListener(deviceId, eventListener);
+			}
+
+			manager.startAll().toCompletableFuture().get(10, TimeUnit.SECONDS);
+			assertTrue(stacked.await(10, TimeUnit.SECONDS));
+
+			for (String deviceId : manager.getDeviceIds()) {
+				assertEquals(billsPerDevice, manager.getDevice(deviceId).getLedger().getCount());
+			}
+		}
+	}
+
+	private static BillValidatorSimulator simulator() {
+		BillValidatorSimulator simulator = new BillValidatorSimulator();
+		simulator.setResponseDelayMs(2);
+		simulator.setInitializeMs(50);
+		simulator.setStepDurationMs(20);
+		return simulator;
+	}
+}